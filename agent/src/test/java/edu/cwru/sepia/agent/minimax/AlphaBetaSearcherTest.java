@@ -0,0 +1,66 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.environment.model.state.State;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that the in-place search finds the same values as the original search over copied game states.
+ */
+public class AlphaBetaSearcherTest {
+
+    private static final int MAX_DEPTH = 4;
+
+    private static final State.StateView[] STATES = {
+            TestStates.twoOnTwo(), TestStates.twoOnTwoBehindTrees(), TestStates.threeOnOne()};
+
+    @Test
+    public void inPlaceSearchMatchesCopySearch() {
+        for (int quiescencePlys : new int[]{0, 4}) {
+            for (State.StateView view : STATES) {
+                for (int depth = 1; depth <= MAX_DEPTH; depth++) {
+                    String name = "depth " + depth + ", quiescence " + quiescencePlys;
+                    double expected = searchCopies(view, depth, quiescencePlys);
+
+                    AlphaBetaSearcher inPlace = new AlphaBetaSearcher(new StateTracker(view), null);
+                    inPlace.setQuiescencePlys(quiescencePlys);
+                    inPlace.search(depth, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+                    assertEquals(name, expected, inPlace.getScore(), 1e-9);
+
+                    AlphaBetaSearcher withTable = new AlphaBetaSearcher(new StateTracker(view),
+                            new TranspositionTable(1));
+                    withTable.setQuiescencePlys(quiescencePlys);
+                    withTable.iterativeDeepening(depth, Long.MAX_VALUE);
+                    assertEquals(name + " with a transposition table", expected, withTable.getScore(), 1e-9);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void searchLeavesTheRootUnchanged() {
+        for (State.StateView view : STATES) {
+            StateTracker state = new StateTracker(view);
+            long key = state.getHashKey();
+            double utility = state.getUtility();
+            new AlphaBetaSearcher(state, null).search(MAX_DEPTH, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+            assertEquals(key, state.getHashKey());
+            assertEquals(utility, state.getUtility(), 0);
+        }
+    }
+
+    /**
+     * Searches a state by expanding a copied game state for every child
+     * @param view The state to search
+     * @param depth The number of plys to search
+     * @param quiescencePlys The maximum number of plys of attacks to search beyond the nominal depth
+     * @return The minimax value of the state
+     */
+    private static double searchCopies(State.StateView view, int depth, int quiescencePlys) {
+        MinimaxAlphaBeta agent = new MinimaxAlphaBeta(0, new String[]{Integer.toString(depth), "search=copy",
+                "ttMegabytes=0", "ordering=static", "quiescence=" + quiescencePlys});
+        return agent.alphaBetaSearch(new GameStateChild(view), depth, Double.NEGATIVE_INFINITY,
+                Double.POSITIVE_INFINITY).state.getSearchValue();
+    }
+}
@@ -0,0 +1,130 @@
+package edu.cwru.sepia.agent.minimax;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that an opening book survives being written and mapped back in, and refuses another map's signature.
+ */
+public class OpeningBookTest {
+
+    private static final int POSITIONS = 100;
+
+    @Test
+    public void writtenBookMapsBackWithEveryPosition() throws IOException {
+        long signature = new MapContext(TestStates.twoOnTwo()).getSignature();
+        OpeningBook book = newBook(signature);
+        File file = File.createTempFile("book", ".bin");
+        file.deleteOnExit();
+        try (OutputStream os = new FileOutputStream(file)) {
+            book.write(os);
+        }
+
+        OpeningBook mapped = OpeningBook.map(file);
+        assertEquals(signature, mapped.getSignature());
+        assertEquals(POSITIONS, mapped.size());
+        assertPositions(mapped);
+        assertFalse(mapped.probe(key(POSITIONS), new TranspositionTable.Entry()));
+    }
+
+    @Test
+    public void bookReadFromStreamMergesNewPositions() throws IOException {
+        long signature = new MapContext(TestStates.twoOnTwo()).getSignature();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        newBook(signature).write(bytes);
+
+        OpeningBook read = OpeningBook.read(new ByteArrayInputStream(bytes.toByteArray()));
+        assertTrue(read.bind(signature));
+        // A shallower result does not replace a stored one, but a deeper one does
+        read.record(key(0), 0, -1, 1);
+        read.record(key(1), 50, 7.5, 9);
+        read.record(key(POSITIONS), 3, 2.5, 4);
+        assertEquals(POSITIONS + 1, read.size());
+
+        bytes.reset();
+        read.write(bytes);
+        OpeningBook merged = OpeningBook.read(new ByteArrayInputStream(bytes.toByteArray()));
+        TranspositionTable.Entry entry = new TranspositionTable.Entry();
+        assertTrue(merged.probe(key(0), entry));
+        assertEquals(depth(0), entry.depth);
+        assertTrue(merged.probe(key(1), entry));
+        assertEquals(50, entry.depth);
+        assertEquals(9, entry.move);
+        assertTrue(merged.probe(key(POSITIONS), entry));
+        assertEquals(2.5, entry.value, 0);
+    }
+
+    @Test
+    public void bookRefusesAnotherSignature() throws IOException {
+        long signature = new MapContext(TestStates.twoOnTwo()).getSignature();
+        long otherSignature = new MapContext(TestStates.twoOnTwoBehindTrees()).getSignature();
+        assertNotEquals(signature, otherSignature);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        newBook(signature).write(bytes);
+        OpeningBook read = OpeningBook.read(new ByteArrayInputStream(bytes.toByteArray()));
+        assertFalse(read.bind(otherSignature));
+        assertEquals(signature, read.getSignature());
+        assertTrue(read.bind(signature));
+
+        // An empty book takes on whichever signature it is first bound to
+        OpeningBook empty = new OpeningBook();
+        assertTrue(empty.bind(otherSignature));
+        assertEquals(otherSignature, empty.getSignature());
+    }
+
+    @Test
+    public void streamWithoutABookIsRejected() {
+        try {
+            OpeningBook.read(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16,
+                    17, 18, 19, 20}));
+            fail("Read a book from arbitrary bytes");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static OpeningBook newBook(long signature) {
+        OpeningBook book = new OpeningBook();
+        assertTrue(book.bind(signature));
+        for (int i = 0; i < POSITIONS; i++) {
+            book.record(key(i), depth(i), value(i), i);
+        }
+        return book;
+    }
+
+    private static void assertPositions(OpeningBook book) {
+        TranspositionTable.Entry entry = new TranspositionTable.Entry();
+        for (int i = 0; i < POSITIONS; i++) {
+            assertTrue("position " + i, book.probe(key(i), entry));
+            assertEquals(depth(i), entry.depth);
+            assertEquals(value(i), entry.value, 0);
+            assertEquals(i, entry.move);
+        }
+    }
+
+    // Keys spread over the whole unsigned range, to exercise the sorted order of stored entries
+    private static long key(int i) {
+        return (i + 1) * 0x9E3779B97F4A7C15L;
+    }
+
+    private static int depth(int i) {
+        return 1 + i % 8;
+    }
+
+    private static double value(int i) {
+        return i * 12.5 - 300;
+    }
+}
@@ -0,0 +1,140 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.environment.model.state.State;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the in-place state: that undoing a move restores the state exactly, and that the hash and utility kept up
+ * to date move by move match ones computed from scratch.
+ */
+public class StateTrackerTest {
+
+    private static final int GAMES = 20;
+    private static final int PLYS_PER_GAME = 60;
+
+    private static final State.StateView[] STATES = {
+            TestStates.twoOnTwo(), TestStates.twoOnTwoBehindTrees(), TestStates.threeOnOne()};
+
+    @Test
+    public void undoRestoresEveryMove() {
+        for (State.StateView view : STATES) {
+            Random random = new Random(1);
+            for (int game = 0; game < GAMES; game++) {
+                StateTracker state = new StateTracker(view);
+                for (int ply = 0; ply < PLYS_PER_GAME; ply++) {
+                    int[] moves = state.getJointMoves();
+                    if (moves.length == 0)
+                        break;
+                    String before = describe(state);
+                    int[] movesBefore = moves.clone();
+                    for (int move : moves) {
+                        int mark = state.mark();
+                        state.makeMove(move);
+                        state.undo(mark);
+                        assertEquals("after undoing move " + move, before, describe(state));
+                        assertArrayEquals(movesBefore, state.getJointMoves());
+                    }
+                    state.makeMove(moves[random.nextInt(moves.length)]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void undoRestoresMovesToTheRoot() {
+        for (State.StateView view : STATES) {
+            StateTracker state = new StateTracker(view);
+            String root = describe(state);
+            int mark = state.mark();
+            Random random = new Random(2);
+            int plys = 0;
+            for (; plys < PLYS_PER_GAME; plys++) {
+                int[] moves = state.getJointMoves();
+                if (moves.length == 0)
+                    break;
+                state.makeMove(moves[random.nextInt(moves.length)]);
+            }
+            assertTrue(plys > 0);
+            state.undo(mark);
+            assertEquals(root, describe(state));
+        }
+    }
+
+    @Test
+    public void incrementalHashMatchesRecomputedHash() {
+        for (State.StateView view : STATES) {
+            Random random = new Random(3);
+            for (int game = 0; game < GAMES; game++) {
+                StateTracker state = new StateTracker(view);
+                for (int ply = 0; ply < PLYS_PER_GAME; ply++) {
+                    assertEquals("at ply " + ply, state.computeHashKey(), state.getHashKey());
+                    int[] moves = state.getJointMoves();
+                    if (moves.length == 0)
+                        break;
+                    int mark = state.mark();
+                    state.makeMove(moves[random.nextInt(moves.length)]);
+                    assertEquals(state.computeHashKey(), state.getHashKey());
+                    // Undone moves must leave the hash consistent too
+                    state.undo(mark);
+                    assertEquals(state.computeHashKey(), state.getHashKey());
+                    state.makeMove(moves[random.nextInt(moves.length)]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void incrementalUtilityMatchesRecomputedUtility() {
+        for (State.StateView view : STATES) {
+            Random random = new Random(4);
+            for (int game = 0; game < GAMES; game++) {
+                StateTracker state = new StateTracker(view);
+                for (int ply = 0; ply < PLYS_PER_GAME; ply++) {
+                    assertEquals("at ply " + ply, state.computeUtility(), state.getUtility(), 1e-9);
+                    int[] moves = state.getJointMoves();
+                    if (moves.length == 0)
+                        break;
+                    int mark = state.mark();
+                    state.makeMove(moves[random.nextInt(moves.length)]);
+                    assertEquals(state.computeUtility(), state.getUtility(), 1e-9);
+                    state.undo(mark);
+                    assertEquals(state.computeUtility(), state.getUtility(), 1e-9);
+                    state.makeMove(moves[random.nextInt(moves.length)]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void copiesMatchTheirSource() {
+        StateTracker state = new StateTracker(TestStates.twoOnTwo());
+        Random random = new Random(5);
+        for (int ply = 0; ply < 10; ply++) {
+            int[] moves = state.getJointMoves();
+            state.makeMove(moves[random.nextInt(moves.length)]);
+        }
+        StateTracker copy = new StateTracker(state);
+        assertEquals(describe(state), describe(copy));
+        StateTracker reused = new StateTracker(TestStates.twoOnTwo(), state.getContext());
+        reused.copyFrom(state);
+        assertEquals(describe(state), describe(reused));
+    }
+
+    /**
+     * Describes everything about a state that a move can change
+     * @param state The state
+     * @return A description that is equal for equal states
+     */
+    private static String describe(StateTracker state) {
+        return "hash=" + state.getHashKey() + " turn=" + state.getTurnNumber() + " player=" + state.getPlayer()
+                + " footmen=" + state.getFootmen() + " archers=" + state.getArchers() + " hp=" + state.getUnitHPs()
+                + " utility=" + state.getUtility() + " moves=" + Arrays.toString(state.getJointMoves());
+    }
+}
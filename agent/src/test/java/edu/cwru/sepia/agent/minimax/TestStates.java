@@ -0,0 +1,106 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.environment.model.state.PlayerState;
+import edu.cwru.sepia.environment.model.state.ResourceNode;
+import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.environment.model.state.Unit;
+import edu.cwru.sepia.environment.model.state.UnitTemplate;
+
+/**
+ * This class builds small battles for the tests, with unit stats like those of the bundled maps, without
+ * loading a map file.
+ */
+final class TestStates {
+
+    static final int WIDTH = 25;
+    static final int HEIGHT = 19;
+
+    private TestStates() {
+    }
+
+    /**
+     * Builds two footmen against two archers on an open map, with one footman already next to an archer so that the
+     * first moves include attacks
+     * @return The view the footmen start the episode with
+     */
+    static State.StateView twoOnTwo() {
+        return build(new int[][]{{5, 12}, {18, 5}}, new int[][]{{5, 13}, {18, 13}}, new int[0][]);
+    }
+
+    /**
+     * Builds two footmen against two archers with a row of trees between them, so that paths differ from straight
+     * line distances
+     * @return The view the footmen start the episode with
+     */
+    static State.StateView twoOnTwoBehindTrees() {
+        int[][] trees = new int[8][];
+        for (int i = 0; i < trees.length; i++) {
+            trees[i] = new int[]{8 + i, 9};
+        }
+        return build(new int[][]{{10, 7}, {13, 7}}, new int[][]{{10, 11}, {14, 12}}, trees);
+    }
+
+    /**
+     * Builds three footmen against one archer, which tests the footmen's coordinated moves
+     * @return The view the footmen start the episode with
+     */
+    static State.StateView threeOnOne() {
+        return build(new int[][]{{3, 3}, {4, 4}, {6, 2}}, new int[][]{{7, 4}}, new int[0][]);
+    }
+
+    /**
+     * Builds a battle
+     * @param footmen The x and y position of each footman
+     * @param archers The x and y position of each archer
+     * @param trees The x and y position of each tree
+     * @return The view the footmen start the episode with
+     */
+    static State.StateView build(int[][] footmen, int[][] archers, int[][] trees) {
+        PlayerState footmanPlayer = new PlayerState(0);
+        PlayerState archerPlayer = new PlayerState(1);
+        UnitTemplate footman = template(0, 0, "Footman", 160, 8, 1);
+        UnitTemplate archer = template(1, 1, "Archer", 60, 3, 4);
+        footmanPlayer.addTemplate(footman);
+        archerPlayer.addTemplate(archer);
+        int id = 0;
+        for (int[] position : footmen) {
+            footmanPlayer.addUnit(unit(footman, id++, position));
+        }
+        for (int[] position : archers) {
+            archerPlayer.addUnit(unit(archer, id++, position));
+        }
+
+        State.StateBuilder builder = new State.StateBuilder();
+        builder.addPlayer(footmanPlayer);
+        builder.addPlayer(archerPlayer);
+        builder.setSize(WIDTH, HEIGHT);
+        for (int[] position : trees) {
+            builder.addResource(new ResourceNode(ResourceNode.Type.TREE, position[0], position[1], 100, id++));
+        }
+        builder.setIDDistributerTargetMax(id);
+        builder.setIDDistributerTemplateMax(2);
+        State state = builder.build();
+        state.updateGlobalListsFromPlayers();
+        state.recalculateVision();
+        return state.getView(0);
+    }
+
+    private static UnitTemplate template(int id, int player, String name, int hp, int attack, int range) {
+        UnitTemplate template = new UnitTemplate(id);
+        template.setPlayer(player);
+        template.setName(name);
+        template.setBaseHealth(hp);
+        template.setBasicAttack(attack);
+        template.setRange(range);
+        template.setCanMove(true);
+        return template;
+    }
+
+    private static Unit unit(UnitTemplate template, int id, int[] position) {
+        Unit unit = new Unit(template, id);
+        unit.setHP(template.getBaseHealth());
+        unit.setxPosition(position[0]);
+        unit.setyPosition(position[1]);
+        return unit;
+    }
+}
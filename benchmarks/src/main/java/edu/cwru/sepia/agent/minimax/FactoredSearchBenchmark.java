@@ -0,0 +1,45 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.environment.model.state.State.StateView;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the factored search from the initial state of generated maps with growing numbers of units.
+ * <p>
+ * Each side gets the given number of footmen and archers, so the joint moves of a ply number about 4 to the power
+ * of that, and the packed joint moves of {@link SearchBenchmark} cannot even hold the larger sides. The factored
+ * search should instead take time roughly linear in the number of units at each depth:
+ * {@code java -jar benchmarks/target/benchmarks.jar FactoredSearchBenchmark -prof gc}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FactoredSearchBenchmark {
+
+    @Param({"4", "8", "16"})
+    public int unitsPerSide;
+
+    @Param({"1", "2", "3"})
+    public int depth;
+
+    private StateView state;
+    private MapContext context;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        state = MapStates.generate(unitsPerSide);
+        context = new MapContext(state);
+    }
+
+    @Benchmark
+    public double factoredSearch() {
+        FactoredSearcher searcher = new FactoredSearcher(new StateTracker(state, context));
+        searcher.search(depth);
+        return searcher.getScore();
+    }
+}
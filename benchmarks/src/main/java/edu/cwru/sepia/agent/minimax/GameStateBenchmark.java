@@ -0,0 +1,85 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.environment.model.state.State.StateView;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.xml.bind.JAXBException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of move generation and evaluation on the initial state of each bundled map.
+ * <p>
+ * Run with the GC profiler to see the allocation rate of each operation:
+ * {@code java -jar benchmarks/target/benchmarks.jar GameStateBenchmark -prof gc}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameStateBenchmark {
+
+    @Param({"Game2fv1a_Obstacles", "Game2fv2a", "Game2fv2a_Obstacles"})
+    public String map;
+
+    private GameState gameState;
+    private StateTracker unevaluated;
+    private StateTracker evaluated;
+    private int firstMove;
+    private int width;
+    private int height;
+
+    @Setup(Level.Trial)
+    public void setUp() throws JAXBException {
+        StateView view = MapStates.load(map);
+        gameState = new GameState(view);
+        unevaluated = gameState.getStateTracker();
+        evaluated = new StateTracker(unevaluated);
+        evaluated.getUtility();
+        JointMoveGenerator moves = new JointMoveGenerator(evaluated.getNumUnits());
+        moves.reset(evaluated, StateTracker.NO_MOVE, StateTracker.NO_MOVE);
+        firstMove = moves.next();
+        width = view.getXExtent();
+        height = view.getYExtent();
+    }
+
+    @Benchmark
+    public List<GameStateChild> getChildren() {
+        return gameState.getChildren();
+    }
+
+    /**
+     * Evaluates every unit's contribution from scratch, on a fresh copy of a state never evaluated before
+     */
+    @Benchmark
+    public double getUtility() {
+        return new StateTracker(unevaluated).getUtility();
+    }
+
+    /**
+     * Evaluates the state after one joint move, as the search does, recomputing only the units it affects
+     */
+    @Benchmark
+    public double getUtilityAfterMove() {
+        int mark = evaluated.mark();
+        evaluated.makeMove(firstMove);
+        double utility = evaluated.getUtility();
+        evaluated.undo(mark);
+        return utility;
+    }
+
+    /**
+     * Checks every cell of the map once
+     */
+    @Benchmark
+    public void positionAvailable(Blackhole blackhole) {
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                blackhole.consume(evaluated.positionAvailable(x, y));
+            }
+        }
+    }
+}
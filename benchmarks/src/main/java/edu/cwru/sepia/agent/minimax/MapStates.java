@@ -0,0 +1,95 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.environment.model.persistence.generated.XmlState;
+import edu.cwru.sepia.environment.model.state.PlayerState;
+import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.environment.model.state.Unit;
+import edu.cwru.sepia.environment.model.state.UnitTemplate;
+import edu.cwru.sepia.environment.model.state.XmlStateCreator;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import java.io.File;
+
+/**
+ * This class loads the bundled maps for benchmarking, without starting a SEPIA episode.
+ * <p>
+ * Maps are read from the directory named by the {@code maps.dir} system property, which defaults to the
+ * {@code data} directory of the working directory. Larger battles than the bundled maps can be generated with
+ * {@link #generate(int)}.
+ */
+public class MapStates {
+
+    public static final String MAPS_DIRECTORY_PROPERTY = "maps.dir";
+
+    // Size of the bundled maps, widened for battles that do not fit across it
+    private static final int GENERATED_WIDTH = 25;
+    private static final int GENERATED_HEIGHT = 19;
+
+    /**
+     * Loads a map and gets the view the footmen would start the episode with
+     * @param mapName The name of the map file, without its extension, such as {@code Game2fv2a}
+     * @return The initial state view of player 0
+     * @throws JAXBException If the map file cannot be read
+     */
+    public static State.StateView load(String mapName) throws JAXBException {
+        File file = new File(System.getProperty(MAPS_DIRECTORY_PROPERTY, "data"), mapName + ".xml");
+        XmlState xml = (XmlState) JAXBContext.newInstance(XmlState.class).createUnmarshaller().unmarshal(file);
+        return new XmlStateCreator(xml).createState().getView(0);
+    }
+
+    /**
+     * Generates an open map with the given number of footmen and archers, using the unit templates of the bundled
+     * maps. The footmen stand in a row near the top of the map and the archers in a row near the bottom, both
+     * centred.
+     * @param unitsPerSide The number of footmen, and of archers
+     * @return The initial state view of player 0
+     */
+    public static State.StateView generate(int unitsPerSide) {
+        int width = Math.max(GENERATED_WIDTH, unitsPerSide + 2);
+        int left = (width - unitsPerSide) / 2;
+        // Players are filled in before they are added, in the order SEPIA's own map loader uses
+        PlayerState footmen = new PlayerState(0);
+        PlayerState archers = new PlayerState(1);
+        UnitTemplate footman = createTemplate(0, 0, "Footman", 60, 8, 1);
+        UnitTemplate archer = createTemplate(1, 1, "Archer", 60, 5, 10);
+        footmen.addTemplate(footman);
+        archers.addTemplate(archer);
+        for (int i = 0; i < unitsPerSide; i++) {
+            footmen.addUnit(createUnit(footman, i, 160, left + i, 5));
+            archers.addUnit(createUnit(archer, unitsPerSide + i, 50, left + i, GENERATED_HEIGHT - 6));
+        }
+        State.StateBuilder builder = new State.StateBuilder();
+        builder.addPlayer(footmen);
+        builder.addPlayer(archers);
+        builder.setSize(width, GENERATED_HEIGHT);
+        builder.setIDDistributerTargetMax(2 * unitsPerSide);
+        builder.setIDDistributerTemplateMax(2);
+        State state = builder.build();
+        state.updateGlobalListsFromPlayers();
+        state.recalculateVision();
+        return state.getView(0);
+    }
+
+    private static UnitTemplate createTemplate(int id, int player, String name, int baseHealth, int basicAttack,
+                                               int range) {
+        UnitTemplate template = new UnitTemplate(id);
+        template.setPlayer(player);
+        template.setName(name);
+        template.setBaseHealth(baseHealth);
+        template.setBasicAttack(basicAttack);
+        template.setRange(range);
+        template.setCanMove(true);
+        template.setDurationMove(1);
+        template.setDurationAttack(1);
+        return template;
+    }
+
+    private static Unit createUnit(UnitTemplate template, int id, int hp, int x, int y) {
+        Unit unit = new Unit(template, id);
+        unit.setHP(hp);
+        unit.setxPosition(x);
+        unit.setyPosition(y);
+        return unit;
+    }
+}
@@ -0,0 +1,68 @@
+package edu.cwru.sepia.agent.minimax;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.xml.bind.JAXBException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the in-place search over a {@link SearchArena} kept from one operation to the next, as the agent
+ * keeps it from one turn to the next.
+ * <p>
+ * Each operation resets the arena to a root and searches it with quiescence, without a transposition table so that
+ * every operation searches the whole tree. With {@code game=fixed} the root is always the initial state of a bundled
+ * map. With {@code game=advancing} each operation plays the move it found on the root, as turns do, so the searches
+ * reach new positions and distance targets, and the game starts over once it ends or has gone on for
+ * {@link #TURNS_PER_GAME} turns. The allocation reported by the GC profiler per operation should stay at the size of
+ * the searcher object however many nodes are searched, in either case:
+ * {@code java -jar benchmarks/target/benchmarks.jar SearchArenaBenchmark -prof gc}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchArenaBenchmark {
+
+    static final int TURNS_PER_GAME = 40;
+
+    @Param({"Game2fv1a_Obstacles", "Game2fv2a", "Game2fv2a_Obstacles"})
+    public String map;
+
+    @Param({"1", "2", "3", "4", "5"})
+    public int depth;
+
+    @Param({"fixed", "advancing"})
+    public String game;
+
+    private StateTracker initial;
+    private StateTracker root;
+    private SearchArena arena;
+    private int turns;
+
+    @Setup(Level.Trial)
+    public void setUp() throws JAXBException {
+        initial = new StateTracker(MapStates.load(map));
+        root = new StateTracker(initial);
+        arena = new SearchArena(initial, depth);
+    }
+
+    @Benchmark
+    public int search() {
+        arena.reset(root);
+        AlphaBetaSearcher searcher = new AlphaBetaSearcher(arena, null, null, null);
+        searcher.setQuiescencePlys(4);
+        int move = searcher.search(depth, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        if ("advancing".equals(game)) {
+            // Restarting reuses the root's arrays and undo log, which stop growing once a game has been played
+            if (move == StateTracker.NO_MOVE || ++turns == TURNS_PER_GAME) {
+                root.copyFrom(initial);
+                turns = 0;
+            } else {
+                root.makeMove(move);
+            }
+        }
+        return move;
+    }
+}
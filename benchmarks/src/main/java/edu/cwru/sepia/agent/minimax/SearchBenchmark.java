@@ -0,0 +1,63 @@
+package edu.cwru.sepia.agent.minimax;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.xml.bind.JAXBException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of a full alpha-beta search from the initial state of each bundled map.
+ * <p>
+ * The transposition table is disabled, so that every operation searches the whole tree instead of finding the
+ * previous operation's results, moves are ordered statically, since killer moves and history are only kept from
+ * one turn to the next, and the opening book is off, since it would answer every operation after the first.
+ * Searches with quiescence plys reach the same values at a lower nominal depth, so compare them one depth apart.
+ * Run with the GC profiler to see the allocation rate of each search:
+ * {@code java -jar benchmarks/target/benchmarks.jar SearchBenchmark -prof gc}
+ * <p>
+ * The in-place search splits the root across the given number of threads, so on a machine with that many cores the
+ * speedup of the split over one thread can be read off
+ * {@code java -jar benchmarks/target/benchmarks.jar SearchBenchmark -p search=inplace -p threads=1,2,4,8}.
+ * The copying search always runs on one thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+
+    @Param({"Game2fv1a_Obstacles", "Game2fv2a", "Game2fv2a_Obstacles"})
+    public String map;
+
+    @Param({"1", "2", "3", "4", "5"})
+    public int depth;
+
+    @Param({"inplace", "copy"})
+    public String search;
+
+    @Param({"0", "4"})
+    public int quiescence;
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    private GameState root;
+    private MinimaxAlphaBeta agent;
+
+    @Setup(Level.Trial)
+    public void setUp() throws JAXBException {
+        // The root and its map context are built once, so that the in-place search keeps its arena between operations
+        root = new GameState(MapStates.load(map));
+        agent = new MinimaxAlphaBeta(0, new String[]{Integer.toString(depth), "search=" + search,
+                "ttMegabytes=0", "ordering=static", "book=false",
+                "quiescence=" + quiescence, "threads=" + threads});
+    }
+
+    @Benchmark
+    public GameStateChild alphaBetaSearch() {
+        return agent.alphaBetaSearch(new GameStateChild(null, root), depth,
+                Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+}
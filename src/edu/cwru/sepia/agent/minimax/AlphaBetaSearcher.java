@@ -0,0 +1,664 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * This class runs alpha-beta search in place over a single mutable state tracker.
+ * <p>
+ * Each node applies a joint move with {@link StateTracker#makeMove(int)}, searches below it and then reverts it
+ * with {@link StateTracker#undo(int)}, so memory use grows with the search depth rather than with the number of
+ * children generated along the way. If a transposition table is given, interior nodes probe it for a cutoff or a
+ * move to try first, and store their result in it.
+ * <p>
+ * {@link #iterativeDeepening(int, long)} searches depth 1, 2, 3... until a deadline passes, trying the principal
+ * variation of each completed depth first in the next one.
+ * <p>
+ * If a {@link ForkJoinPool} is given, the root is split across it once its first move has been searched (young
+ * brothers wait): every other root move is searched on its own copy of the state, starting from the tightest bound
+ * found so far and narrowing to the root's bound again before each of its own moves, as other root moves finish.
+ * The transposition table is shared between these searches; it verifies keys against entry contents, so concurrent
+ * writers can lose entries but never corrupt a probe.
+ * <p>
+ * Moves come from one {@link JointMoveGenerator} per ply: the principal variation and transposition table moves
+ * are tried first, and the rest are only generated if neither causes a cutoff. If a {@link MoveOrderer} is given,
+ * the killer moves of the ply follow them, and the rest come in history order; otherwise they come in the static
+ * order of {@link StateTracker#getUnitActions(int, int[])}. Utilities are memoized in a small cache keyed by state
+ * hash.
+ * <p>
+ * The generators, principal variation tables and cache come from a {@link SearchArena}. A searcher built over an
+ * arena kept from turn to turn walks the arena's state, and allocates nothing while it searches on one thread.
+ * <p>
+ * With principal variation search enabled, only the first move of each node is searched with the full window. The
+ * rest are searched with a null window just around the bound, which only proves whether they are better, and are
+ * searched again with the full window if they are. Each iteration of iterative deepening then starts from an
+ * aspiration window around the expected score, and widens to the full window if the score falls outside it.
+ * <p>
+ * With quiescence search enabled, a node at the nominal depth is not simply evaluated while the player to move
+ * still has attacks to make. The search goes on through attacks only, with every other unit holding, until the
+ * position is quiet or the quiescence plys run out. The player to move may always stand pat on the static
+ * utility instead, which bounds the value from its side and cuts off as soon as it is outside the window.
+ */
+public class AlphaBetaSearcher {
+
+    public static final int MAX_DEPTH = 64;
+    public static final int MAX_QUIESCENCE_PLYS = 16;
+
+    // How many nodes to visit between checks of the clock
+    private static final int NODES_PER_CLOCK_CHECK = 1024;
+
+    // Half-width of the aspiration window, about the utility of one unit's health
+    private static final double ASPIRATION_WINDOW = 50;
+
+    private final StateTracker state;
+    private final SearchArena arena;
+    private final int maxDepth;
+    private final TranspositionTable table;
+    private final TranspositionTable.Entry entry = new TranspositionTable.Entry();
+    private final ForkJoinPool pool;
+    private final MoveOrderer orderer;
+    private final long[] evaluationKeys;
+    private final double[] evaluationValues;
+    private final JointMoveGenerator[] generators;
+    private int rootBestMove;
+    private double rootValue;
+    private int completedDepth;
+    private boolean principalVariationSearch;
+    private int quiescencePlys;
+    private double expectedScore = Double.NaN;
+    private SearchMetrics metrics;
+
+    // Triangular principal variation table for the current iteration, and the line found by the previous one
+    private final int[][] pv;
+    private final int[] pvLength;
+    private final int[] previousPv;
+    private int previousPvLength;
+    // Variation expected from an earlier search, tried first by the first search
+    private final int[] expectedPv;
+    private int expectedPvLength;
+    // Principal variation of the last search that completed
+    private final int[] lastPv;
+    private int lastPvLength;
+    private boolean followPv;
+    // Bound of the root, for a search of one root move on the pool, and whether that bound cut the search off
+    private RootSplit rootSplit;
+    private boolean cutOffByRoot;
+
+    private long deadline;
+    private boolean aborted;
+    private volatile boolean stopRequested;
+    private int nodesUntilClockCheck;
+    private long nodes;
+
+    /**
+     * This class collects the results of root moves searched in parallel, and shares the tightest bound between them
+     */
+    private static class RootSplit {
+        private final boolean maximizing;
+        // Written under the split's lock, but read without it by the searches of root moves
+        private volatile double alpha;
+        private volatile double beta;
+        private double best;
+        private int bestMove;
+        private int[] bestPv = new int[0];
+        private volatile boolean aborted;
+
+        private RootSplit(boolean maximizing, double alpha, double beta, double best, int bestMove) {
+            this.maximizing = maximizing;
+            this.alpha = alpha;
+            this.beta = beta;
+            this.best = best;
+            this.bestMove = bestMove;
+        }
+
+        private synchronized void offer(int move, double value, int[] pv, int pvLength) {
+            if (maximizing ? value > best : value < best) {
+                best = value;
+                bestMove = move;
+                bestPv = Arrays.copyOf(pv, pvLength);
+                if (maximizing) {
+                    alpha = Math.max(alpha, value);
+                } else {
+                    beta = Math.min(beta, value);
+                }
+            }
+        }
+    }
+
+    /**
+     * This constructor prepares a searcher that will walk the given state on the calling thread
+     * @param state The state to search from; it is modified during the search but restored afterwards
+     * @param table The transposition table to share results through, or null to search without one
+     */
+    public AlphaBetaSearcher(StateTracker state, TranspositionTable table) {
+        this(state, table, null);
+    }
+
+    /**
+     * This constructor prepares a searcher that will walk the given state, splitting the root across a pool
+     * @param state The state to search from; it is modified during the search but restored afterwards
+     * @param table The transposition table to share results through, or null to search without one
+     * @param pool The pool to search root moves on, or null to search them all on the calling thread
+     */
+    public AlphaBetaSearcher(StateTracker state, TranspositionTable table, ForkJoinPool pool) {
+        this(state, table, pool, null);
+    }
+
+    /**
+     * This constructor prepares a searcher that orders moves by killer moves and history
+     * @param state The state to search from; it is modified during the search but restored afterwards
+     * @param table The transposition table to share results through, or null to search without one
+     * @param pool The pool to search root moves on, or null to search them all on the calling thread
+     * @param orderer The killer moves and history to order moves by and update, or null to use the static order
+     */
+    public AlphaBetaSearcher(StateTracker state, TranspositionTable table, ForkJoinPool pool, MoveOrderer orderer) {
+        this(state, new SearchArena(state, MAX_DEPTH), table, pool, orderer);
+    }
+
+    /**
+     * This constructor prepares a searcher that walks the state of an arena, using the arena's scratch space
+     * @param arena The arena to search in, whose state has been reset to the root; the state is restored afterwards
+     * @param table The transposition table to share results through, or null to search without one
+     * @param pool The pool to search root moves on, or null to search them all on the calling thread
+     * @param orderer The killer moves and history to order moves by and update, or null to use the static order
+     */
+    public AlphaBetaSearcher(SearchArena arena, TranspositionTable table, ForkJoinPool pool, MoveOrderer orderer) {
+        this(arena.state, arena, table, pool, orderer);
+    }
+
+    private AlphaBetaSearcher(StateTracker state, SearchArena arena, TranspositionTable table, ForkJoinPool pool,
+                              MoveOrderer orderer) {
+        this.state = state;
+        this.arena = arena;
+        this.maxDepth = arena.maxDepth;
+        this.table = table;
+        this.pool = pool;
+        this.orderer = orderer;
+        this.deadline = Long.MAX_VALUE;
+        evaluationKeys = arena.evaluationKeys;
+        evaluationValues = arena.evaluationValues;
+        generators = arena.generators;
+        pv = arena.pv;
+        pvLength = arena.pvLength;
+        previousPv = arena.previousPv;
+        expectedPv = arena.expectedPv;
+        lastPv = arena.lastPv;
+    }
+
+    /**
+     * Sets the variation an earlier search expects from the root, such as the rest of the principal variation of
+     * the previous turn, to be tried first until the first search completes
+     * @param moves The expected joint moves from the root, in order
+     */
+    public void setExpectedVariation(int[] moves) {
+        expectedPvLength = Math.min(moves.length, maxDepth + 1);
+        System.arraycopy(moves, 0, expectedPv, 0, expectedPvLength);
+        previousPvLength = expectedPvLength;
+        System.arraycopy(moves, 0, previousPv, 0, expectedPvLength);
+    }
+
+    /**
+     * Enables or disables principal variation search with aspiration windows
+     * @param principalVariationSearch True to search with null windows after the first move of each node
+     */
+    public void setPrincipalVariationSearch(boolean principalVariationSearch) {
+        this.principalVariationSearch = principalVariationSearch;
+    }
+
+    /**
+     * Sets how many plys of attacks may be searched beyond the nominal depth before a position is evaluated
+     * @param quiescencePlys The maximum number of quiescence plys, 0 to evaluate at the nominal depth
+     */
+    public void setQuiescencePlys(int quiescencePlys) {
+        this.quiescencePlys = Math.max(0, Math.min(quiescencePlys, MAX_QUIESCENCE_PLYS));
+    }
+
+    /**
+     * Sets the score the first iteration of iterative deepening centres its aspiration window on
+     * @param expectedScore The expected score, such as the previous turn's, or NaN to search with the full window
+     */
+    public void setExpectedScore(double expectedScore) {
+        this.expectedScore = expectedScore;
+    }
+
+    /**
+     * Sets the metrics the search counts its nodes, leaves, cutoffs and transposition hits in
+     * @param metrics The metrics to update, or null to count nothing
+     */
+    public void setMetrics(SearchMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Gets the value of the root found by the last completed search
+     * @return The minimax value of the root for the maximizing player
+     */
+    public double getScore() {
+        return rootValue;
+    }
+
+    /**
+     * Gets the depth of the last search that completed
+     * @return The number of plys searched by the deepest completed search, or 0 if none completed
+     */
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    /**
+     * Searches the state to a fixed depth and finds the best joint move for the player to move. The search only
+     * counts as completed, setting the depth, principal variation and metrics, if its value falls inside the window:
+     * a value on or outside it is only a bound, as after an aspiration window fails.
+     * @param depth The number of plys to search
+     * @param alpha The current best value for the maximizing player
+     * @param beta The current best value for the minimizing player
+     * @return The best joint move, or {@link StateTracker#NO_MOVE} if the player to move has none
+     */
+    public int search(int depth, double alpha, double beta) {
+        rootBestMove = StateTracker.NO_MOVE;
+        followPv = true;
+        if (depth > 0) {
+            alphaBeta(Math.min(depth, maxDepth), alpha, beta, 0);
+            if (!aborted && (alpha == Double.NEGATIVE_INFINITY || rootValue > alpha)
+                    && (beta == Double.POSITIVE_INFINITY || rootValue < beta)) {
+                completedDepth = Math.min(depth, maxDepth);
+                lastPvLength = pvLength[0];
+                System.arraycopy(pv[0], 0, lastPv, 0, lastPvLength);
+                // A root answered from the transposition table has a best move but no variation
+                if (lastPvLength == 0 && rootBestMove != StateTracker.NO_MOVE) {
+                    lastPv[0] = rootBestMove;
+                    lastPvLength = 1;
+                }
+                if (metrics != null)
+                    metrics.completedDepth(completedDepth);
+            }
+        }
+        return rootBestMove;
+    }
+
+    /**
+     * Searches to increasing depths until the maximum depth is completed or the deadline passes
+     * @param maxDepth The deepest search to run
+     * @param deadline The {@link System#nanoTime()} after which no more searching is done, or Long.MAX_VALUE
+     * @return The best joint move from the deepest completed search, or {@link StateTracker#NO_MOVE} if there is none
+     */
+    public int iterativeDeepening(int maxDepth, long deadline) {
+        int bestMove = StateTracker.NO_MOVE;
+        double score = Double.NaN;
+        double guess = expectedScore;
+        previousPvLength = expectedPvLength;
+        System.arraycopy(expectedPv, 0, previousPv, 0, expectedPvLength);
+        for (int depth = 1; depth <= Math.min(maxDepth, this.maxDepth); depth++) {
+            // The first iteration always completes so that there is a move to play, unless the search is stopped
+            this.deadline = (depth == 1) ? Long.MAX_VALUE : deadline;
+            aborted = false;
+            nodesUntilClockCheck = NODES_PER_CLOCK_CHECK;
+            int move;
+            if (principalVariationSearch && !Double.isNaN(guess)) {
+                double alpha = guess - ASPIRATION_WINDOW;
+                double beta = guess + ASPIRATION_WINDOW;
+                move = search(depth, alpha, beta);
+                if (!aborted && (rootValue <= alpha || rootValue >= beta))
+                    move = search(depth, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+            } else {
+                move = search(depth, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+            }
+            if (aborted)
+                break;
+            bestMove = move;
+            score = rootValue;
+            guess = rootValue;
+            previousPvLength = pvLength[0];
+            System.arraycopy(pv[0], 0, previousPv, 0, previousPvLength);
+            if (move == StateTracker.NO_MOVE || System.nanoTime() >= deadline)
+                break;
+        }
+        aborted = false;
+        deadline = Long.MAX_VALUE;
+        rootValue = score;
+        return bestMove;
+    }
+
+    /**
+     * Asks a search running on another thread to unwind as soon as possible, after which it returns the result of
+     * its last completed depth. Parallel root searches already started finish their moves first.
+     */
+    public void stop() {
+        stopRequested = true;
+    }
+
+    /**
+     * Gets a move of the principal variation found by the last completed search
+     * @param ply The distance of the move from the root
+     * @return The move expected at that ply, or {@link StateTracker#NO_MOVE} if the variation is shorter
+     */
+    public int getPrincipalMove(int ply) {
+        return (ply < lastPvLength) ? lastPv[ply] : StateTracker.NO_MOVE;
+    }
+
+    /**
+     * Gets the number of nodes visited by this searcher so far, not counting parallel root searches
+     * @return The number of nodes visited
+     */
+    public long getNodeCount() {
+        return nodes;
+    }
+
+    /**
+     * Checks the clock every so many nodes, and flags the search as aborted once the deadline has passed or a stop
+     * has been requested
+     * @return True if the search should unwind without using its results
+     */
+    private boolean checkAborted() {
+        // A stop request is a cheap volatile read, so it is checked at every node for a prompt stop
+        if (stopRequested)
+            aborted = true;
+        if (--nodesUntilClockCheck <= 0) {
+            nodesUntilClockCheck = NODES_PER_CLOCK_CHECK;
+            if (deadline != Long.MAX_VALUE && System.nanoTime() >= deadline)
+                aborted = true;
+        }
+        return aborted;
+    }
+
+    /**
+     * Recursively evaluates the current state
+     * @param depth The remaining number of plys under this node
+     * @param alpha The current best value for the maximizing node from this node to the root
+     * @param beta The current best value for the minimizing node from this node to the root
+     * @param ply The distance of this node from the root
+     * @return The minimax value of the current state, bounded by alpha and beta
+     */
+    private double alphaBeta(int depth, double alpha, double beta, int ply) {
+        pvLength[ply] = 0;
+        nodes++;
+        if (metrics != null)
+            metrics.node(ply);
+        if (checkAborted())
+            return 0;
+        if (depth <= 0)
+            return quiescence(alpha, beta, ply, quiescencePlys);
+
+        // Transposition table cutoff, never taken at the root so that a move is always chosen there
+        long key = state.getHashKey();
+        int hashMove = StateTracker.NO_MOVE;
+        boolean hit = (table != null && table.probe(key, entry));
+        if (metrics != null && table != null)
+            metrics.transpositionProbe(hit);
+        if (hit) {
+            hashMove = entry.move;
+            if (ply > 0 && entry.depth >= depth) {
+                if (entry.bound == TranspositionTable.EXACT) return entry.value;
+                if (entry.bound == TranspositionTable.LOWER) alpha = Math.max(alpha, entry.value);
+                if (entry.bound == TranspositionTable.UPPER) beta = Math.min(beta, entry.value);
+                if (beta <= alpha) return entry.value;
+            }
+        }
+
+        // Follow the previous iteration's principal variation while the search is still on it
+        boolean onPv = followPv;
+        int pvMove = (onPv && ply < previousPvLength) ? previousPv[ply] : StateTracker.NO_MOVE;
+
+        JointMoveGenerator moves = generators[ply];
+        moves.reset(state, orderer, ply, pvMove, hashMove);
+        int move = moves.next();
+        if (move == StateTracker.NO_MOVE)
+            return evaluateLeaf();
+
+        boolean maximizing = isMaximizing();
+        double alphaOriginal = alpha;
+        double betaOriginal = beta;
+        double best = maximizing ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        int bestMove = move;
+        for (int i = 0; move != StateTracker.NO_MOVE; move = moves.next(), i++) {
+            if (ply == 1 && rootSplit != null) {
+                // Other root moves may have tightened the root's bound since this one started, which narrows the
+                // window as if it had been passed in, or cuts the root move off if it can no longer be chosen
+                double rootAlpha = rootSplit.alpha;
+                double rootBeta = rootSplit.beta;
+                alpha = Math.max(alpha, rootAlpha);
+                alphaOriginal = Math.max(alphaOriginal, rootAlpha);
+                beta = Math.min(beta, rootBeta);
+                betaOriginal = Math.min(betaOriginal, rootBeta);
+                if (beta <= alpha) {
+                    cutOffByRoot = true;
+                    aborted = true;
+                    return 0;
+                }
+            }
+            if (i == 1 && ply == 0 && pool != null && depth > 1) {
+                RootSplit split = new RootSplit(maximizing, alpha, beta, best, bestMove);
+                searchRootSiblings(split, concat(new int[]{move}, moves.drain()), depth);
+                if (split.aborted) {
+                    aborted = true;
+                    return 0;
+                }
+                if (split.bestMove != bestMove) {
+                    best = split.best;
+                    bestMove = split.bestMove;
+                    pv[0][0] = bestMove;
+                    System.arraycopy(split.bestPv, 0, pv[0], 1, split.bestPv.length);
+                    pvLength[0] = split.bestPv.length + 1;
+                }
+                break;
+            }
+            int mark = state.mark();
+            state.makeMove(move);
+            followPv = onPv && move == pvMove;
+            double value = searchChild(depth - 1, alpha, beta, ply + 1, maximizing, i > 0);
+            state.undo(mark);
+            if (aborted)
+                return 0;
+            if (maximizing ? value > best : value < best) {
+                best = value;
+                bestMove = move;
+                updatePv(ply, move);
+            }
+            if (maximizing) {
+                alpha = Math.max(alpha, best);
+            } else {
+                beta = Math.min(beta, best);
+            }
+            if (beta <= alpha) {
+                if (metrics != null)
+                    metrics.betaCutoff(i);
+                if (orderer != null)
+                    orderer.recordCutoff(state, move, depth, ply);
+                break;
+            }
+        }
+
+        if (ply == 0) {
+            rootBestMove = bestMove;
+            rootValue = best;
+        }
+        if (table != null) {
+            int bound = (best <= alphaOriginal) ? TranspositionTable.UPPER
+                    : (best >= betaOriginal) ? TranspositionTable.LOWER
+                    : TranspositionTable.EXACT;
+            table.store(key, best, depth, bound, bestMove);
+        }
+        return best;
+    }
+
+    /**
+     * Searches the child reached by a move. With principal variation search, a move that is not the first of its
+     * node is searched with a null window first, and only searched again with the full window if it proves better
+     * than the best move so far without exceeding the bound.
+     * @param depth The remaining number of plys under the child
+     * @param alpha The current best value for the maximizing node from the child to the root
+     * @param beta The current best value for the minimizing node from the child to the root
+     * @param ply The distance of the child from the root
+     * @param maximizing Whether the parent is a maximizing node
+     * @param scout Whether the move is expected to be no better than an earlier sibling
+     * @return The minimax value of the child, bounded by alpha and beta
+     */
+    private double searchChild(int depth, double alpha, double beta, int ply, boolean maximizing, boolean scout) {
+        if (principalVariationSearch && scout) {
+            double value = maximizing
+                    ? alphaBeta(depth, alpha, Math.nextUp(alpha), ply)
+                    : alphaBeta(depth, Math.nextDown(beta), beta, ply);
+            if (aborted || (maximizing ? value <= alpha || value >= beta : value >= beta || value <= alpha))
+                return value;
+        }
+        return alphaBeta(depth, alpha, beta, ply);
+    }
+
+    /**
+     * Searches every root move after the first on the pool, each on its own copy of the state, and waits for them
+     * @param split The shared bound and result of the root
+     * @param moves The root moves after the first
+     * @param depth The depth of the root
+     */
+    private void searchRootSiblings(RootSplit split, int[] moves, int depth) {
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int move : moves) {
+            tasks.add(pool.submit(() -> searchRootMove(split, move, depth)));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+    }
+
+    /**
+     * Searches a single root move with the tightest bound available, and reports its value. The bound is read when
+     * the search starts and again before each move of the root move's child, so that a root move already beaten by
+     * another one is cut off. The move is searched on a copy of the root state in the arena of the calling thread.
+     * @param split The shared bound and result of the root
+     * @param move The root move to search
+     * @param depth The depth of the root
+     */
+    private void searchRootMove(RootSplit split, int move, int depth) {
+        double alpha = split.alpha;
+        double beta = split.beta;
+        if (beta <= alpha || split.aborted)
+            return;
+        SearchArena helperArena = arena.getHelperArena();
+        StateTracker copy = helperArena.reset(state);
+        MoveOrderer helperOrderer = (orderer != null) ? helperArena.copyOrderer(orderer) : null;
+        AlphaBetaSearcher helper = new AlphaBetaSearcher(helperArena, table, null, helperOrderer);
+        helper.principalVariationSearch = principalVariationSearch;
+        helper.quiescencePlys = quiescencePlys;
+        helper.metrics = (metrics != null) ? new SearchMetrics(0) : null;
+        helper.deadline = deadline;
+        helper.nodesUntilClockCheck = NODES_PER_CLOCK_CHECK;
+        helper.rootSplit = split;
+        copy.makeMove(move);
+        double value = helper.searchChild(depth - 1, alpha, beta, 1, split.maximizing, true);
+        if (metrics != null)
+            metrics.add(helper.metrics);
+        if (helper.cutOffByRoot)
+            return;
+        if (helper.aborted) {
+            split.aborted = true;
+            return;
+        }
+        split.offer(move, value, helper.pv[1], helper.pvLength[1]);
+    }
+
+    /**
+     * Makes the given move followed by the child's principal variation the principal variation of this ply
+     * @param ply The ply of the node
+     * @param move The node's new best move
+     */
+    private void updatePv(int ply, int move) {
+        pv[ply][0] = move;
+        System.arraycopy(pv[ply + 1], 0, pv[ply], 1, pvLength[ply + 1]);
+        pvLength[ply] = pvLength[ply + 1] + 1;
+    }
+
+    /**
+     * Evaluates a node at or beyond the nominal depth, searching on through attacks until the position is quiet
+     * @param alpha The current best value for the maximizing node from this node to the root
+     * @param beta The current best value for the minimizing node from this node to the root
+     * @param ply The distance of this node from the root
+     * @param plysLeft The number of quiescence plys that may still be searched below this node
+     * @return The value of the current state, bounded by alpha and beta
+     */
+    private double quiescence(double alpha, double beta, int ply, int plysLeft) {
+        if (plysLeft <= 0)
+            return evaluateLeaf();
+        JointMoveGenerator moves = generators[ply];
+        moves.resetAttacks(state);
+        int move = moves.next();
+        if (move == StateTracker.NO_MOVE)
+            return evaluateLeaf();
+
+        // The player to move can stand pat instead of attacking
+        boolean maximizing = isMaximizing();
+        double best = evaluate();
+        if (maximizing ? best >= beta : best <= alpha) {
+            if (metrics != null)
+                metrics.leaf();
+            return best;
+        }
+        if (maximizing) {
+            alpha = Math.max(alpha, best);
+        } else {
+            beta = Math.min(beta, best);
+        }
+        for (int i = 0; move != StateTracker.NO_MOVE; move = moves.next(), i++) {
+            nodes++;
+            if (metrics != null)
+                metrics.node(ply + 1);
+            if (checkAborted())
+                return 0;
+            int mark = state.mark();
+            state.makeMove(move);
+            double value = quiescence(alpha, beta, ply + 1, plysLeft - 1);
+            state.undo(mark);
+            if (aborted)
+                return 0;
+            if (maximizing ? value > best : value < best)
+                best = value;
+            if (maximizing) {
+                alpha = Math.max(alpha, best);
+            } else {
+                beta = Math.min(beta, best);
+            }
+            if (beta <= alpha) {
+                if (metrics != null)
+                    metrics.betaCutoff(i);
+                break;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Evaluates a node the search does not expand, counting it as a leaf
+     * @return The utility of the current state
+     */
+    private double evaluateLeaf() {
+        if (metrics != null)
+            metrics.leaf();
+        return evaluate();
+    }
+
+    /**
+     * Gets the utility of the current state, computing it only if it is not already cached
+     * @return The utility of the current state
+     */
+    private double evaluate() {
+        long key = state.getHashKey();
+        int index = (int) key & (evaluationKeys.length - 1);
+        if (evaluationKeys[index] != key) {
+            evaluationKeys[index] = key;
+            evaluationValues[index] = state.getUtility();
+        }
+        return evaluationValues[index];
+    }
+
+    private boolean isMaximizing() {
+        return state.getPlayer() == 0;
+    }
+
+    private static int[] concat(int[] first, int[] second) {
+        int[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
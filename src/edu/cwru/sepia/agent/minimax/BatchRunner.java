@@ -0,0 +1,259 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.action.Action;
+import edu.cwru.sepia.agent.Agent;
+import edu.cwru.sepia.environment.Environment;
+import edu.cwru.sepia.environment.model.SimpleModel;
+import edu.cwru.sepia.environment.model.history.History;
+import edu.cwru.sepia.environment.model.persistence.generated.XmlState;
+import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.environment.model.state.XmlStateCreator;
+import edu.cwru.sepia.experiment.Configuration;
+
+import javax.xml.bind.JAXBContext;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plays many headless episodes of {@link MinimaxAlphaBeta} against the archer agent and reports how it did.
+ * <p>
+ * Usage: {@code BatchRunner MAP [episodes=N] [threads=N] [timeLimit=N] [seed=N] [-- AGENT_ARGS...]}, where MAP is a
+ * map file such as {@code data/Game2fv2a.xml} and the arguments after {@code --} are passed to the footmen's agent
+ * (default: {@code 4}). Episodes are independent games run without any display, on a fixed pool of threads. Each
+ * thread sets up its own model, agents and environment once, and then plays episode after episode on them the way
+ * SEPIA's episodic runners do, so agent state such as the transposition table and opening book carries over between
+ * the episodes of a thread. The report gives the footmen's win rate, the average number of steps of the episodes
+ * they won, and percentiles of the time the footmen took per move.
+ * <p>
+ * With more than one thread, each thread's agent gets its own {@code bookFile} and {@code metricsFile}, named by
+ * inserting the thread's number before the extension (for example {@code book-0.bin}), so that agents playing at
+ * the same time never write the same file.
+ * <p>
+ * The archer agent is loaded by name, so its directory must be on the class path.
+ */
+public class BatchRunner {
+
+    private static final String ARCHER_AGENT_CLASS = "ArcherAgent";
+    // Options of the footmen's agent that name files the agent writes
+    private static final String[] WORKER_FILE_OPTIONS = {"bookFile", "metricsFile"};
+
+    /**
+     * The result of a single episode
+     */
+    private static class Result {
+        private final int winner;
+        private final int steps;
+        private final long[] moveNanos;
+
+        private Result(int winner, int steps, long[] moveNanos) {
+            this.winner = winner;
+            this.steps = steps;
+            this.moveNanos = moveNanos;
+        }
+    }
+
+    /**
+     * A minimax agent that times each of its moves
+     */
+    private static class TimedAgent extends MinimaxAlphaBeta {
+        private final List<Long> moveNanos = new ArrayList<>();
+
+        private TimedAgent(int playernum, String[] args) {
+            super(playernum, args);
+        }
+
+        @Override
+        public Map<Integer, Action> middleStep(State.StateView newstate, History.HistoryView statehistory) {
+            long start = System.nanoTime();
+            Map<Integer, Action> actions = super.middleStep(newstate, statehistory);
+            moveNanos.add(System.nanoTime() - start);
+            return actions;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: BatchRunner MAP [episodes=N] [threads=N] [timeLimit=N] [seed=N] "
+                    + "[-- AGENT_ARGS...]");
+            System.exit(1);
+        }
+        int separator = Arrays.asList(args).indexOf("--");
+        String[] options = (separator < 0) ? args : Arrays.copyOfRange(args, 0, separator);
+        String[] agentArgs = (separator < 0) ? new String[]{"4"} : Arrays.copyOfRange(args, separator + 1, args.length);
+        int episodes = Integer.parseInt(getOption(options, "episodes", "100"));
+        int threads = Integer.parseInt(getOption(options, "threads",
+                Integer.toString(Runtime.getRuntime().availableProcessors())));
+        int timeLimit = Integer.parseInt(getOption(options, "timeLimit", "1000"));
+        int seed = Integer.parseInt(getOption(options, "seed", "0"));
+
+        XmlState map = (XmlState) JAXBContext.newInstance(XmlState.class).createUnmarshaller()
+                .unmarshal(new File(args[0]));
+
+        long start = System.nanoTime();
+        // SEPIA runs each agent on a thread that never exits, which inherits the daemon flag of the pool's threads
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger episodesLeft = new AtomicInteger(episodes);
+        List<Future<List<Result>>> futures = new ArrayList<>();
+        for (int worker = 0; worker < threads; worker++) {
+            int workerSeed = seed + worker;
+            String[] workerArgs = (threads > 1) ? getWorkerArgs(agentArgs, worker) : agentArgs;
+            futures.add(executor.submit(() -> playEpisodes(map, workerArgs, timeLimit, workerSeed, episodesLeft)));
+        }
+        List<Result> results = new ArrayList<>();
+        for (Future<List<Result>> future : futures) {
+            results.addAll(future.get());
+        }
+        executor.shutdown();
+
+        report(results, (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Looks up an optional argument of the form {@code name=value}
+     * @param args The arguments
+     * @param name The name of the option
+     * @param defaultValue The value to use if the option is not given
+     * @return The value of the option
+     */
+    private static String getOption(String[] args, String name, String defaultValue) {
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].startsWith(name + "=")) return args[i].substring(name.length() + 1);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Gives the agent of one thread its own files, by inserting the thread's number into every file option
+     * @param agentArgs The arguments of the footmen's agent
+     * @param worker The number of the thread
+     * @return A copy of the arguments with the thread's file names
+     */
+    private static String[] getWorkerArgs(String[] agentArgs, int worker) {
+        String[] workerArgs = agentArgs.clone();
+        for (int i = 1; i < workerArgs.length; i++) {
+            for (String name : WORKER_FILE_OPTIONS) {
+                if (workerArgs[i].startsWith(name + "="))
+                    workerArgs[i] = name + "=" + getWorkerFile(workerArgs[i].substring(name.length() + 1), worker);
+            }
+        }
+        return workerArgs;
+    }
+
+    /**
+     * Inserts a thread's number into a file name, before its extension if it has one
+     * @param path The file name
+     * @param worker The number of the thread
+     * @return The thread's file name
+     */
+    private static String getWorkerFile(String path, int worker) {
+        int dot = path.lastIndexOf('.');
+        int separator = path.lastIndexOf(File.separatorChar);
+        return (dot > separator + 1) ? path.substring(0, dot) + "-" + worker + path.substring(dot)
+                : path + "-" + worker;
+    }
+
+    /**
+     * Plays episodes on one environment until the batch has no episodes left
+     * @param map The map to play on
+     * @param agentArgs The arguments of the footmen's agent
+     * @param timeLimit The number of steps after which an episode is a draw
+     * @param seed The seed of the environment
+     * @param episodesLeft The number of episodes of the batch not yet started
+     * @return The results of the episodes played
+     * @throws Exception If the environment cannot be set up or is interrupted
+     */
+    private static List<Result> playEpisodes(XmlState map, String[] agentArgs, int timeLimit, int seed,
+                                             AtomicInteger episodesLeft) throws Exception {
+        Configuration configuration = new Configuration();
+        configuration.put("environment.model.Conquest", true);
+        configuration.put("environment.model.Midas", false);
+        configuration.put("environment.model.ManifestDestiny", false);
+        configuration.put("environment.model.TimeLimit", timeLimit);
+
+        XmlStateCreator creator = new XmlStateCreator(map);
+        SimpleModel model = new SimpleModel(creator.createState(), seed, creator, configuration);
+        model.setVerbose(false);
+        TimedAgent footmen = new TimedAgent(0, agentArgs);
+        Agent archers = (Agent) Class.forName(ARCHER_AGENT_CLASS).getConstructor(int.class, String[].class)
+                .newInstance(1, new String[]{"1"});
+        Environment environment = new Environment(new Agent[]{footmen, archers}, model, seed);
+
+        List<Result> results = new ArrayList<>();
+        while (episodesLeft.getAndDecrement() > 0) {
+            footmen.moveNanos.clear();
+            environment.runEpisode();
+
+            State.StateView state = model.getState().getView(Agent.OBSERVER_ID);
+            int winner = state.getUnitIds(1).isEmpty() ? 0 : state.getUnitIds(0).isEmpty() ? 1 : -1;
+            long[] moveNanos = new long[footmen.moveNanos.size()];
+            for (int i = 0; i < moveNanos.length; i++) {
+                moveNanos[i] = footmen.moveNanos.get(i);
+            }
+            results.add(new Result(winner, environment.getStepNumber(), moveNanos));
+        }
+        return results;
+    }
+
+    /**
+     * Prints the win rate, steps to win and move latency percentiles of a batch of episodes
+     * @param results The results of the episodes
+     * @param seconds The wall time the batch took
+     */
+    private static void report(List<Result> results, double seconds) {
+        int wins = 0;
+        int losses = 0;
+        long winSteps = 0;
+        int numMoves = 0;
+        for (Result result : results) {
+            if (result.winner == 0) {
+                wins++;
+                winSteps += result.steps;
+            } else if (result.winner == 1) {
+                losses++;
+            }
+            numMoves += result.moveNanos.length;
+        }
+        long[] moveNanos = new long[numMoves];
+        int i = 0;
+        for (Result result : results) {
+            System.arraycopy(result.moveNanos, 0, moveNanos, i, result.moveNanos.length);
+            i += result.moveNanos.length;
+        }
+        Arrays.sort(moveNanos);
+
+        System.out.printf(Locale.ROOT, "episodes: %d in %.1f s (%.1f/s)%n", results.size(), seconds,
+                results.size() / seconds);
+        System.out.printf(Locale.ROOT, "footmen wins: %d (%.1f%%), losses: %d, draws: %d%n", wins,
+                100.0 * wins / results.size(), losses, results.size() - wins - losses);
+        System.out.printf(Locale.ROOT, "average steps to win: %s%n",
+                (wins > 0) ? String.format(Locale.ROOT, "%.1f", (double) winSteps / wins) : "-");
+        System.out.printf(Locale.ROOT, "move latency (ms) over %d moves: p50 %.3f, p90 %.3f, p99 %.3f, max %.3f%n",
+                numMoves, percentile(moveNanos, 50), percentile(moveNanos, 90), percentile(moveNanos, 99),
+                percentile(moveNanos, 100));
+    }
+
+    /**
+     * Gets a percentile of sorted latencies, by the nearest-rank method
+     * @param sortedNanos The latencies in nanoseconds, sorted ascending
+     * @param percent The percentile to get
+     * @return The percentile in milliseconds, or 0 if there are no latencies
+     */
+    private static double percentile(long[] sortedNanos, double percent) {
+        if (sortedNanos.length == 0)
+            return 0;
+        int rank = (int) Math.ceil(percent / 100 * sortedNanos.length);
+        return sortedNanos[Math.max(rank, 1) - 1] / 1e6;
+    }
+}
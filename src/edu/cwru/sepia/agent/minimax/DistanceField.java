@@ -0,0 +1,140 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.Arrays;
+
+/**
+ * This class holds the shortest-path distance between cells of a map, around its static obstacles.
+ * <p>
+ * Distances are counted in cardinal steps, the only moves units make, so on a map without obstacles they equal the
+ * Manhattan distance, but a unit on the far side of a wall is as far away as the walk around it. Paths are the same
+ * both ways, so the distances to a cell are filled in by one breadth-first search from it and kept as one
+ * {@code short[]} row per cell, so a lookup is two array accesses and no index grows with the square of the cells.
+ * Units are not obstacles here, as they move during a search.
+ * <p>
+ * Maps of up to {@link #MAX_PRECOMPUTED_CELLS} cells, which includes every bundled map, have all their rows filled
+ * in when the field is built, so searches only read it and allocate nothing. Larger maps would need too much memory
+ * for that, so their rows are filled in under the field's lock the first time each cell is asked for.
+ * <p>
+ * Building a field is quadratic in the number of cells, so {@link #forMap(int, int, long[])} keeps the last field
+ * built and hands it out again for the same obstacle layout; in practice a field is built once per map.
+ */
+public class DistanceField {
+
+    public static final int UNREACHABLE = Short.MAX_VALUE;
+    // Largest map whose rows are all filled in up front, taking 32 MB
+    public static final int MAX_PRECOMPUTED_CELLS = 64 * 64;
+
+    private static final int[] DX = {0, 1, 0, -1};
+    private static final int[] DY = {-1, 0, 1, 0};
+
+    private static DistanceField lastField;
+
+    private final int width;
+    private final int height;
+    private final long[] obstacleBits;
+    // Distances to each cell from every cell, indexed by y * width + x
+    private final short[][] rows;
+    private final boolean precomputed;
+
+    /**
+     * Gets the distance field of a map, reusing the last one built if the map is the same
+     * @param width The width of the map
+     * @param height The height of the map
+     * @param obstacleBits A bitset over the cells, indexed by y * width + x, with a bit set for every obstacle
+     * @return The distance field of the map
+     */
+    public static synchronized DistanceField forMap(int width, int height, long[] obstacleBits) {
+        if (lastField == null || lastField.width != width || lastField.height != height
+                || !Arrays.equals(lastField.obstacleBits, obstacleBits)) {
+            lastField = new DistanceField(width, height, obstacleBits);
+        }
+        return lastField;
+    }
+
+    /**
+     * This constructor computes the distances between all cells of a map, or prepares to compute them as they are
+     * needed if the map has more than {@link #MAX_PRECOMPUTED_CELLS} cells
+     * @param width The width of the map
+     * @param height The height of the map
+     * @param obstacleBits A bitset over the cells, indexed by y * width + x, with a bit set for every obstacle
+     */
+    public DistanceField(int width, int height, long[] obstacleBits) {
+        this.width = width;
+        this.height = height;
+        this.obstacleBits = obstacleBits.clone();
+        int numCells = width * height;
+        rows = new short[numCells][];
+        precomputed = (numCells <= MAX_PRECOMPUTED_CELLS);
+        if (precomputed) {
+            int[] queue = new int[numCells];
+            for (int target = 0; target < numCells; target++) {
+                rows[target] = search(target, queue);
+            }
+        }
+    }
+
+    /**
+     * Gets the distances to a cell
+     * @param target The cell to measure distances to
+     * @return The distance to the target from every cell, {@link #UNREACHABLE} where no path exists
+     */
+    private short[] getRow(int target) {
+        return precomputed ? rows[target] : getLazyRow(target);
+    }
+
+    /**
+     * Gets the distances to a cell of a map too large to fill in up front, searching the first time it is asked for
+     * @param target The cell to measure distances to
+     * @return The distance to the target from every cell, {@link #UNREACHABLE} where no path exists
+     */
+    private synchronized short[] getLazyRow(int target) {
+        if (rows[target] == null)
+            rows[target] = search(target, new int[width * height]);
+        return rows[target];
+    }
+
+    /**
+     * Measures the distances from one cell with a breadth-first search over cardinal steps
+     * @param source The cell to search from
+     * @param queue Scratch space for the search, with room for every cell
+     * @return The distance from the source to every cell, {@link #UNREACHABLE} where no path exists
+     */
+    private short[] search(int source, int[] queue) {
+        short[] distances = new short[width * height];
+        Arrays.fill(distances, (short) UNREACHABLE);
+        if (isObstacle(source))
+            return distances;
+        distances[source] = 0;
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = source;
+        while (head < tail) {
+            int cell = queue[head++];
+            int x = cell % width;
+            int y = cell / width;
+            short distance = (short) (distances[cell] + 1);
+            for (int i = 0; i < DX.length; i++) {
+                int nx = x + DX[i];
+                int ny = y + DY[i];
+                if (nx < 0 || ny < 0 || nx >= width || ny >= height) continue;
+                int next = ny * width + nx;
+                if (distances[next] != UNREACHABLE || isObstacle(next)) continue;
+                distances[next] = distance;
+                queue[tail++] = next;
+            }
+        }
+        return distances;
+    }
+
+    private boolean isObstacle(int cell) {
+        return (obstacleBits[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    /**
+     * Gets the length of the shortest path between two cells
+     * @return The number of steps between (x1, y1) and (x2, y2), or {@link #UNREACHABLE} if no path exists
+     */
+    public int getDistance(int x1, int y1, int x2, int y2) {
+        return getRow(y2 * width + x2)[y1 * width + x1];
+    }
+}
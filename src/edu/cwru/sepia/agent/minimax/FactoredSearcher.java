@@ -0,0 +1,322 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.action.Action;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * This class runs a factored alpha-beta search in place over a single mutable state tracker, deciding each unit's
+ * action in turn instead of enumerating every joint move.
+ * <p>
+ * At each node, every unit of the player to move starts from its best ordered action that does not collide with an
+ * earlier unit's, and that joint move is searched first. Then each unit in slot order tries its other actions while
+ * the rest keep theirs, and keeps whichever was best before the next unit's turn. A node thus searches about one
+ * child per unit action instead of one per combination, so the branching factor grows linearly with the number of
+ * units rather than exponentially, at the price of only finding the best joint move reachable by improving one unit
+ * at a time. Alpha-beta bounds still apply, since the value of a node only ever improves as it is searched.
+ * <p>
+ * Moves are applied unpacked with {@link StateTracker#makeMove(int[], int)}, so players may have more units than a
+ * packed joint move holds. {@link #iterativeDeepening(int, long)} searches depth 1, 2, 3... until a deadline passes,
+ * starting the root from the best joint move of the previous depth. Utilities are memoized in a small cache keyed by
+ * state hash.
+ */
+public class FactoredSearcher {
+
+    public static final int MAX_DEPTH = 64;
+
+    // How many nodes to visit between checks of the clock
+    private static final int NODES_PER_CLOCK_CHECK = 1024;
+
+    private static final int EVALUATION_CACHE_SIZE = 1 << 14;
+
+    private final StateTracker state;
+    private final long[] evaluationKeys = new long[EVALUATION_CACHE_SIZE];
+    private final double[] evaluationValues = new double[EVALUATION_CACHE_SIZE];
+
+    // Per-ply scratch space: the units to move, their action codes and the code currently chosen for each
+    private final int[][] movers;
+    private final int[][][] codes;
+    private final int[][] codeCounts;
+    private final int[][] assignments;
+
+    // Best joint move of the root found by the last completed search
+    private final int[] rootAssignment;
+    private int rootNumMovers;
+    private double rootValue;
+    private int completedDepth;
+    private SearchMetrics metrics;
+
+    private long deadline = Long.MAX_VALUE;
+    private boolean aborted;
+    private int nodesUntilClockCheck;
+    private long nodes;
+
+    /**
+     * This constructor prepares a searcher that will walk the given state on the calling thread
+     * @param state The state to search from; it is modified during the search but restored afterwards
+     */
+    public FactoredSearcher(StateTracker state) {
+        this.state = state;
+        int numUnits = state.getNumUnits();
+        movers = new int[MAX_DEPTH + 1][numUnits];
+        codes = new int[MAX_DEPTH + 1][numUnits][state.getMaxUnitActions()];
+        codeCounts = new int[MAX_DEPTH + 1][numUnits];
+        assignments = new int[MAX_DEPTH + 1][numUnits];
+        rootAssignment = new int[numUnits];
+    }
+
+    /**
+     * Sets the metrics the search counts its nodes, leaves and cutoffs in
+     * @param metrics The metrics to update, or null to count nothing
+     */
+    public void setMetrics(SearchMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Gets the value of the root found by the last completed search
+     * @return The value of the root for the maximizing player
+     */
+    public double getScore() {
+        return rootValue;
+    }
+
+    /**
+     * Gets the depth of the last search that completed
+     * @return The number of plys searched by the deepest completed search, or 0 if none completed
+     */
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    /**
+     * Gets the number of nodes visited by this searcher so far
+     * @return The number of nodes visited
+     */
+    public long getNodeCount() {
+        return nodes;
+    }
+
+    /**
+     * Translates the best joint move found by the last completed search into SEPIA actions
+     * @return A map of each unit's action to its respective ID, empty if the player to move has no units
+     */
+    public Map<Integer, Action> getBestActions() {
+        if (rootNumMovers == 0)
+            return Collections.emptyMap();
+        return state.getActions(rootAssignment, rootNumMovers);
+    }
+
+    /**
+     * Makes the best joint move found by the last completed search on the searched state
+     */
+    public void makeBestMove() {
+        state.makeMove(rootAssignment, rootNumMovers);
+    }
+
+    /**
+     * Searches the state to a fixed depth and finds the best joint move for the player to move
+     * @param depth The number of plys to search
+     * @return True if the player to move has a move, which {@link #getBestActions()} then returns
+     */
+    public boolean search(int depth) {
+        aborted = false;
+        nodesUntilClockCheck = NODES_PER_CLOCK_CHECK;
+        int numMovers = rootNumMovers;
+        double value = alphaBeta(Math.max(1, Math.min(depth, MAX_DEPTH)), Double.NEGATIVE_INFINITY,
+                Double.POSITIVE_INFINITY, 0);
+        if (aborted) {
+            rootNumMovers = numMovers;
+            return rootNumMovers > 0;
+        }
+        rootValue = value;
+        completedDepth = Math.min(depth, MAX_DEPTH);
+        if (metrics != null)
+            metrics.completedDepth(completedDepth);
+        return rootNumMovers > 0;
+    }
+
+    /**
+     * Searches to increasing depths until the maximum depth is completed or the deadline passes
+     * @param maxDepth The deepest search to run
+     * @param deadline The {@link System#nanoTime()} after which no more searching is done, or Long.MAX_VALUE
+     * @return True if the player to move has a move, which {@link #getBestActions()} then returns
+     */
+    public boolean iterativeDeepening(int maxDepth, long deadline) {
+        boolean found = false;
+        for (int depth = 1; depth <= Math.min(maxDepth, MAX_DEPTH); depth++) {
+            // The first iteration always completes so that there is a move to play
+            this.deadline = (depth == 1) ? Long.MAX_VALUE : deadline;
+            found = search(depth);
+            if (aborted || !found || System.nanoTime() >= deadline)
+                break;
+        }
+        aborted = false;
+        this.deadline = Long.MAX_VALUE;
+        return found;
+    }
+
+    /**
+     * Checks the clock every so many nodes, and flags the search as aborted once the deadline has passed
+     * @return True if the search should unwind without using its results
+     */
+    private boolean checkAborted() {
+        if (--nodesUntilClockCheck <= 0) {
+            nodesUntilClockCheck = NODES_PER_CLOCK_CHECK;
+            if (deadline != Long.MAX_VALUE && System.nanoTime() >= deadline)
+                aborted = true;
+        }
+        return aborted;
+    }
+
+    /**
+     * Recursively evaluates the current state, improving the joint move of the player to move one unit at a time
+     * @param depth The remaining number of plys under this node
+     * @param alpha The current best value for the maximizing node from this node to the root
+     * @param beta The current best value for the minimizing node from this node to the root
+     * @param ply The distance of this node from the root
+     * @return The value of the current state, bounded by alpha and beta
+     */
+    private double alphaBeta(int depth, double alpha, double beta, int ply) {
+        nodes++;
+        if (metrics != null)
+            metrics.node(ply);
+        if (checkAborted())
+            return 0;
+        if (depth <= 0)
+            return evaluateLeaf();
+
+        int[] movers = this.movers[ply];
+        int[][] codes = this.codes[ply];
+        int[] codeCounts = this.codeCounts[ply];
+        int[] assignment = assignments[ply];
+        int numMovers = state.getMovers(movers);
+        if (ply == 0)
+            rootNumMovers = numMovers;
+        if (numMovers == 0)
+            return evaluateLeaf();
+        for (int i = 0; i < numMovers; i++) {
+            codeCounts[i] = state.getUnpackedUnitActions(movers[i], codes[i]);
+        }
+        // The root starts from the previous depth's best joint move, other nodes from each unit's best action
+        boolean warmStart = (ply == 0 && completedDepth > 0);
+        for (int i = 0; i < numMovers; i++) {
+            assignment[i] = warmStart ? rootAssignment[i] : getFirstFreeCode(ply, i);
+        }
+
+        boolean maximizing = state.getPlayer() == 0;
+        double best = searchAssignment(depth, alpha, beta, ply, numMovers);
+        if (aborted)
+            return 0;
+        if (maximizing) {
+            alpha = Math.max(alpha, best);
+        } else {
+            beta = Math.min(beta, best);
+        }
+        if (beta <= alpha && metrics != null)
+            metrics.betaCutoff(0);
+        int index = 1;
+        for (int i = 0; i < numMovers && beta > alpha; i++) {
+            int chosen = assignment[i];
+            for (int k = 0; k < codeCounts[i]; k++) {
+                int code = codes[i][k];
+                if (code == chosen || collidesWithOthers(ply, i, code, numMovers))
+                    continue;
+                assignment[i] = code;
+                double value = searchAssignment(depth, alpha, beta, ply, numMovers);
+                if (aborted)
+                    return 0;
+                if (maximizing ? value > best : value < best) {
+                    best = value;
+                    chosen = code;
+                }
+                if (maximizing) {
+                    alpha = Math.max(alpha, best);
+                } else {
+                    beta = Math.min(beta, best);
+                }
+                if (beta <= alpha) {
+                    if (metrics != null)
+                        metrics.betaCutoff(index);
+                    break;
+                }
+                index++;
+            }
+            assignment[i] = chosen;
+        }
+
+        if (ply == 0) {
+            System.arraycopy(assignment, 0, rootAssignment, 0, numMovers);
+            rootNumMovers = numMovers;
+        }
+        return best;
+    }
+
+    /**
+     * Makes the joint move currently assigned at a ply, searches below it and reverts it
+     * @param depth The remaining number of plys under the node
+     * @param alpha The current best value for the maximizing node from the node to the root
+     * @param beta The current best value for the minimizing node from the node to the root
+     * @param ply The distance of the node from the root
+     * @param numMovers The number of units to move
+     * @return The value of the child, bounded by alpha and beta
+     */
+    private double searchAssignment(int depth, double alpha, double beta, int ply, int numMovers) {
+        int mark = state.mark();
+        state.makeMove(assignments[ply], numMovers);
+        double value = alphaBeta(depth - 1, alpha, beta, ply + 1);
+        state.undo(mark);
+        return value;
+    }
+
+    /**
+     * Gets a unit's first ordered action that does not step into the same cell as an earlier unit's, or holds
+     * @param ply The distance of the node from the root
+     * @param i The index of the unit among the units to move
+     * @return The action code
+     */
+    private int getFirstFreeCode(int ply, int i) {
+        for (int k = 0; k < codeCounts[ply][i]; k++) {
+            int code = codes[ply][i][k];
+            boolean free = true;
+            for (int j = 0; j < i && free; j++) {
+                free = !state.collides(movers[ply][i], code, movers[ply][j], assignments[ply][j]);
+            }
+            if (free) return code;
+        }
+        return StateTracker.HOLD;
+    }
+
+    /**
+     * Checks whether a unit's action steps into the same cell as the action currently assigned to another unit
+     * @param ply The distance of the node from the root
+     * @param i The index of the unit among the units to move
+     * @param code The action code to check
+     * @param numMovers The number of units to move
+     * @return True if the action collides
+     */
+    private boolean collidesWithOthers(int ply, int i, int code, int numMovers) {
+        for (int j = 0; j < numMovers; j++) {
+            if (j != i && state.collides(movers[ply][i], code, movers[ply][j], assignments[ply][j]))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Evaluates a node the search does not expand, counting it as a leaf
+     * @return The utility of the current state
+     */
+    private double evaluateLeaf() {
+        if (metrics != null)
+            metrics.leaf();
+        long key = state.getHashKey();
+        int index = (int) key & (EVALUATION_CACHE_SIZE - 1);
+        if (evaluationKeys[index] != key) {
+            evaluationKeys[index] = key;
+            evaluationValues[index] = state.getUtility();
+        }
+        return evaluationValues[index];
+    }
+}
@@ -24,6 +24,14 @@ public class GameState {
     // Pseudo state tracker to increase efficiency
     private StateTracker stateTracker;
 
+    // Utility of this state, computed at most once, and the minimax value a search has backed up to it
+    private double utility;
+    private boolean utilityComputed;
+    private double searchValue;
+
+    // Joint move that led to this state from its parent
+    private int move = StateTracker.NO_MOVE;
+
     /**
      * You will implement this constructor. It will
      * extract all of the needed state information from the built in
@@ -49,6 +57,15 @@ public class GameState {
         stateTracker = new StateTracker(state);
     }
 
+    /**
+     * This constructor extracts the state information from a state view of an episode whose static data is known
+     * @param state Current state of the episode
+     * @param context The static data of the episode, which must match the state view
+     */
+    public GameState(State.StateView state, MapContext context) {
+        stateTracker = new StateTracker(state, context);
+    }
+
     /**
      * This constructor is used to instantiate the pseudo state tracker of this game state
      * @param stateTracker A state tracker shell to be employed by this game state
@@ -76,7 +93,27 @@ public class GameState {
      * @return The weighted linear combination of the features
      */
     public double getUtility() {
-       return stateTracker.getUtility();
+        if (!utilityComputed) {
+            utility = stateTracker.getUtility();
+            utilityComputed = true;
+        }
+        return utility;
+    }
+
+    /**
+     * Gets the minimax value backed up to this state by the most recent search through it
+     * @return The search value of this state
+     */
+    public double getSearchValue() {
+        return searchValue;
+    }
+
+    /**
+     * Records the minimax value backed up to this state by a search
+     * @param searchValue The search value of this state
+     */
+    public void setSearchValue(double searchValue) {
+        this.searchValue = searchValue;
     }
 
     /**
@@ -93,67 +130,83 @@ public class GameState {
      * x += direction.xComponent()
      * y += direction.yComponent()
      *
+     * <p>
+     * Each move is tried on this state and undone, and only copied into a child if it leads somewhere new: joint
+     * moves whose results differ only by which of two interchangeable units is which (see
+     * {@link StateTracker#getCanonicalKey()}) have the same minimax value, so only the first is kept.
+     *
      * @return All possible actions and their associated resulting game state
      */
     public List<GameStateChild> getChildren() {
-        List <GameStateChild> children = new ArrayList<>();
-        Queue<Integer> units = new PriorityQueue<>(getCurrentPlayersUnits().keySet());
-        while (!units.isEmpty()){
-            Integer unitId = units.poll();
-            for (Direction dir1 : getCardinalDirections()){
-                int xDestUnitId = getCurrentPlayersUnits().get(unitId).x + dir1.xComponent();
-                int yDestUnitId = getCurrentPlayersUnits().get(unitId).y + dir1.yComponent();
-                for (Integer unitRemaining : units){
-                    for (Direction dir2 : getCardinalDirections()){
-                        int xDestRemUnitId = getCurrentPlayersUnits().get(unitId).x + dir2.xComponent();
-                        int yDestRemUnitId = getCurrentPlayersUnits().get(unitId).y + dir2.yComponent();
-                        HashMap<Integer, Action> actionMap = new HashMap<>();
-                        GameState state = new GameState(stateTracker);
-                        if (positionAvailable(xDestUnitId, yDestUnitId)) {
-                            actionMap.put(unitId, state.move(unitId, dir1));
-                        }
-                        if (positionAvailable(xDestRemUnitId, yDestRemUnitId)){
-                            actionMap.put(unitRemaining, state.move(unitRemaining, dir2));
-                        }
-                        children.add(new GameStateChild(actionMap, state));
-                    }
-                }
-            }
+        JointMoveGenerator generator = new JointMoveGenerator(stateTracker.getNumUnits());
+        generator.reset(stateTracker, StateTracker.NO_MOVE, StateTracker.NO_MOVE);
+        return getChildren(generator.drain());
+    }
+
+    /**
+     * Generates the children reached by attacks only, for quiescence search: every unit of the player to move that
+     * can attack attacks one of its targets, and every other unit holds
+     * @return The children reached by attacks, or an empty list if the player to move cannot attack
+     */
+    public List<GameStateChild> getAttackChildren() {
+        JointMoveGenerator generator = new JointMoveGenerator(stateTracker.getNumUnits());
+        generator.resetAttacks(stateTracker);
+        return getChildren(generator.drain());
+    }
+
+    /**
+     * Copies this state into a child for each given joint move that leads somewhere new
+     * @param moves The joint moves to try
+     * @return The children, in the order of their moves
+     */
+    private List<GameStateChild> getChildren(int[] moves) {
+        List<GameStateChild> children = new ArrayList<>(moves.length);
+        // Open-addressed set of the canonical keys seen so far, at most half full
+        long[] seen = new long[Integer.highestOneBit(Math.max(moves.length, 1)) * 4];
+        for (int move : moves) {
+            int mark = stateTracker.mark();
+            stateTracker.makeMove(move);
+            GameState child = addKey(seen, stateTracker.getCanonicalKey()) ? new GameState(stateTracker) : null;
+            stateTracker.undo(mark);
+            if (child == null) continue;
+            child.move = move;
+            children.add(new GameStateChild(stateTracker.getActions(move), child));
         }
         return children;
     }
 
     /**
-     * Gets a list of the cardinal directions
-     * @return An array of directions of length 4, populated by cardinal directions
+     * Adds a key to an open-addressed set, in which 0 marks an empty slot
+     * @param table The slots of the set, a power of two in number
+     * @param key The key to add
+     * @return True if the key was not in the set yet
      */
-    private static Direction[] getCardinalDirections() {
-        Direction[] directions = new Direction[4];
-        directions[0] = Direction.NORTH;
-        directions[1] = Direction.EAST;
-        directions[2] = Direction.WEST;
-        directions[3] = Direction.SOUTH;
-        return directions;
+    private static boolean addKey(long[] table, long key) {
+        if (key == 0) key = 1;
+        int mask = table.length - 1;
+        for (int index = (int) (key ^ (key >>> 32)) & mask; ; index = (index + 1) & mask) {
+            if (table[index] == key) return false;
+            if (table[index] == 0) {
+                table[index] = key;
+                return true;
+            }
+        }
     }
 
     /**
-     * Tracks a unit's movement
-     * @param unitID The ID of the unit performing the move
-     * @param direction The direction of movement
-     * @return The action resulting from performing the move
+     * Gets the joint move that led to this state
+     * @return The joint move made from the parent state, or {@link StateTracker#NO_MOVE} for a root state
      */
-    private Action move(Integer unitID, Direction direction) {
-        return stateTracker.move(unitID, direction);
+    int getMove() {
+        return move;
     }
 
     /**
-     * Checks if the specified position is available to move into
-     * @param x The x-coordinate
-     * @param y The y-coordinate
-     * @return True if the coordinates are clear, or false if there is an obstacle
+     * Gets the pseudo state tracker backing this game state
+     * @return The state tracker of this game state
      */
-    private boolean positionAvailable(int x, int y) {
-        return stateTracker.positionAvailable(x, y);
+    StateTracker getStateTracker() {
+        return stateTracker;
     }
 
     /**
@@ -192,7 +245,7 @@ public class GameState {
      * Computes the distance between two units in this game state
      * @param unitId1 The ID of the first unit
      * @param unitId2 The ID of the second unit
-     * @return The Chebyshev distance between the two units' locations
+     * @return The length of the shortest path between the two units' locations, around obstacles
      */
     private double getDistance(int unitId1, int unitId2) {
         return stateTracker.getDistance(unitId1, unitId2);
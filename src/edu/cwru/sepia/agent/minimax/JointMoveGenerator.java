@@ -0,0 +1,201 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.Arrays;
+
+/**
+ * This class lazily enumerates the joint moves of the player to move in a state tracker.
+ * <p>
+ * Resetting the generator only collects each unit's legal action codes; joint moves are then produced one at a time
+ * as packed ints by counting through the cross product of those codes, so a search that cuts off early never
+ * builds the rest. Preferred moves, such as principal variation, transposition table and killer moves, can be
+ * yielded first, and a {@link MoveOrderer} can sort each unit's codes by history so that the counting starts from
+ * the most promising combination. A generator can also be reset to yield only attacks, for quiescence search. A
+ * generator allocates nothing after construction, so a search keeps one per ply and reuses it.
+ */
+public class JointMoveGenerator {
+
+    public static final int MAX_PREFERRED_MOVES = 2 + MoveOrderer.KILLERS_PER_PLY;
+
+    private final int[] movers;
+    private final int[][] codes;
+    private final int[] codeCounts;
+    private final int[] digits;
+    private StateTracker state;
+    private int numMovers;
+    private final int[] preferredMoves = new int[MAX_PREFERRED_MOVES];
+    private int numPreferredMoves;
+    private int stage;
+    private boolean exhausted;
+
+    /**
+     * This constructor allocates a generator able to handle the given number of units
+     * @param numUnits The number of units in the states the generator will be used on
+     */
+    public JointMoveGenerator(int numUnits) {
+        movers = new int[numUnits];
+        codes = new int[numUnits][StateTracker.ACTION_MASK + 1];
+        codeCounts = new int[numUnits];
+        digits = new int[numUnits];
+    }
+
+    /**
+     * Starts enumerating the joint moves of a state
+     * @param state The state to generate moves for; it must not change until enumeration is finished
+     * @param firstMove A move to yield first if it is legal, or {@link StateTracker#NO_MOVE}
+     * @param secondMove A move to yield next if it is legal, or {@link StateTracker#NO_MOVE}
+     */
+    public void reset(StateTracker state, int firstMove, int secondMove) {
+        reset(state, null, 0, firstMove, secondMove);
+    }
+
+    /**
+     * Starts enumerating the joint moves of a state, ordered by the killer moves and history of an orderer
+     * @param state The state to generate moves for; it must not change until enumeration is finished
+     * @param orderer The orderer to take killer moves and history from, or null to use the static order
+     * @param ply The distance of the state from the root, used to look up killer moves
+     * @param firstMove A move to yield first if it is legal, or {@link StateTracker#NO_MOVE}
+     * @param secondMove A move to yield next if it is legal, or {@link StateTracker#NO_MOVE}
+     */
+    public void reset(StateTracker state, MoveOrderer orderer, int ply, int firstMove, int secondMove) {
+        this.state = state;
+        numMovers = getPackedMovers(state);
+        for (int i = 0; i < numMovers; i++) {
+            codeCounts[i] = state.getUnitActions(movers[i], codes[i]);
+            if (orderer != null) orderer.sortUnitActions(movers[i], codes[i], codeCounts[i]);
+            digits[i] = 0;
+        }
+        numPreferredMoves = 0;
+        addPreferredMove(firstMove);
+        addPreferredMove(secondMove);
+        if (orderer != null) {
+            for (int index = 0; index < MoveOrderer.KILLERS_PER_PLY; index++) {
+                addPreferredMove(orderer.getKiller(ply, index));
+            }
+        }
+        stage = 0;
+        exhausted = (numMovers == 0);
+    }
+
+    /**
+     * Starts enumerating the joint moves of a state in which every unit that can attack attacks one of its targets,
+     * and every other unit holds. No moves are yielded if no unit of the player to move can attack, so the state is
+     * quiet.
+     * @param state The state to generate moves for; it must not change until enumeration is finished
+     */
+    public void resetAttacks(StateTracker state) {
+        this.state = state;
+        numMovers = getPackedMovers(state);
+        boolean anyAttack = false;
+        for (int i = 0; i < numMovers; i++) {
+            // Attacks come first in a unit's ordered codes
+            int count = state.getUnitActions(movers[i], codes[i]);
+            int attacks = 0;
+            while (attacks < count && codes[i][attacks] >= StateTracker.FIRST_ATTACK
+                    && codes[i][attacks] != StateTracker.HOLD) {
+                attacks++;
+            }
+            if (attacks == 0) {
+                codes[i][0] = StateTracker.HOLD;
+                attacks = 1;
+            } else {
+                anyAttack = true;
+            }
+            codeCounts[i] = attacks;
+            digits[i] = 0;
+        }
+        numPreferredMoves = 0;
+        stage = 0;
+        exhausted = !anyAttack;
+    }
+
+    /**
+     * Collects the units of the player to move, which must fit a packed joint move
+     * @param state The state to generate moves for
+     * @return The number of units to move
+     */
+    private int getPackedMovers(StateTracker state) {
+        int count = state.getMovers(movers);
+        if (count > StateTracker.MAX_PACKED_MOVERS)
+            throw new IllegalArgumentException("Too many units for packed joint moves: " + count);
+        return count;
+    }
+
+    private void addPreferredMove(int move) {
+        if (isPreferred(move) || !isLegal(move))
+            return;
+        preferredMoves[numPreferredMoves++] = move;
+    }
+
+    private boolean isPreferred(int move) {
+        for (int i = 0; i < numPreferredMoves; i++) {
+            if (preferredMoves[i] == move) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the next joint move
+     * @return The next joint move, or {@link StateTracker#NO_MOVE} once every move has been yielded
+     */
+    public int next() {
+        if (stage < numPreferredMoves)
+            return preferredMoves[stage++];
+        while (!exhausted) {
+            int move = 0;
+            for (int i = 0; i < numMovers; i++) {
+                move |= codes[i][digits[i]] << (i * StateTracker.BITS_PER_UNIT);
+            }
+            advance();
+            if (!isPreferred(move) && !state.hasCollision(movers, numMovers, move))
+                return move;
+        }
+        return StateTracker.NO_MOVE;
+    }
+
+    /**
+     * Collects every joint move not yet yielded
+     * @return The remaining joint moves, in the order they would have been yielded
+     */
+    public int[] drain() {
+        int[] moves = new int[8];
+        int count = 0;
+        for (int move = next(); move != StateTracker.NO_MOVE; move = next()) {
+            if (count == moves.length) moves = Arrays.copyOf(moves, count * 2);
+            moves[count++] = move;
+        }
+        return Arrays.copyOf(moves, count);
+    }
+
+    /**
+     * Advances the mixed-radix counter over the units' action codes
+     */
+    private void advance() {
+        int i = 0;
+        while (i < numMovers && ++digits[i] == codeCounts[i]) {
+            digits[i++] = 0;
+        }
+        exhausted = (i == numMovers);
+    }
+
+    /**
+     * Checks whether a joint move, such as one remembered from another position, can be played in this state
+     * @param move The joint move to check
+     * @return True if the move would be generated for this state
+     */
+    private boolean isLegal(int move) {
+        if (move == StateTracker.NO_MOVE || numMovers == 0)
+            return false;
+        int usedBits = numMovers * StateTracker.BITS_PER_UNIT;
+        if (usedBits < Integer.SIZE && (move >>> usedBits) != 0)
+            return false;
+        for (int i = 0; i < numMovers; i++) {
+            int code = (move >>> (i * StateTracker.BITS_PER_UNIT)) & StateTracker.ACTION_MASK;
+            boolean found = false;
+            for (int j = 0; j < codeCounts[i] && !found; j++) {
+                found = (codes[i][j] == code);
+            }
+            if (!found) return false;
+        }
+        return !state.hasCollision(movers, numMovers, move);
+    }
+}
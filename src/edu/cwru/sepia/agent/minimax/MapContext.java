@@ -0,0 +1,208 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.environment.model.state.ResourceNode;
+import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.environment.model.state.Unit;
+
+import java.awt.*;
+import java.util.*;
+import java.util.List;
+
+/**
+ * This class holds the data of an episode that no move can change, shared by every {@link StateTracker} built for
+ * it.
+ * <p>
+ * That is the map (its size, the obstacle layer and the {@link DistanceField} around it), the unit templates (each
+ * unit's ID, owner, range, basic attack and base health, packed into slots with footmen before archers) and the
+ * Zobrist keys. Units with the same owner and template are grouped into symmetry classes, since swapping two of
+ * them leaves the game unchanged. A context is built from the first state view of an episode and kept for the rest
+ * of it, so units that die keep their slot and every state of the episode hashes with the same keys. State trackers
+ * then hold only positions, HP and the turn. A signature of the map and unit templates tells apart episodes whose
+ * states could otherwise hash the same.
+ * <p>
+ * Fields are package-private and final; nothing may write to the arrays once the context is built.
+ */
+public final class MapContext {
+
+    // Seed for the Zobrist keys, fixed so that keys are stable between episodes on the same map
+    private static final long ZOBRIST_SEED = 0x5EB1A391L;
+
+    final int width;
+    final int height;
+    final int numPlayers;
+
+    // Static obstacle layer indexed by y * width + x, and shortest paths around it
+    final long[] obstacleBits;
+    final DistanceField distanceField;
+    private final Map<Integer, Point> resources;
+
+    // Per-slot unit templates
+    final int numUnits;
+    final int numFootmen;
+    final int[] unitIds;
+    final byte[] owners;
+    final int[] attackRanges;
+    final int[] attackDamages;
+    final int[] maxHps;
+    final long footmenMask;
+    // The lowest slot whose unit is interchangeable with the unit in each slot
+    final int[] symmetryClasses;
+
+    // Zobrist keys for every (unit, cell), (unit, HP) and player to move
+    final long[] positionKeys;
+    final long[] hpKeys;
+    final long[] playerKeys;
+    final int hpKeyStride;
+
+    // Signature of the map size, obstacle layer and unit templates
+    private final long signature;
+
+    /**
+     * This constructor extracts the static data of an episode from one of its state views
+     * @param state A state view of the episode, normally its first
+     */
+    public MapContext(State.StateView state) {
+        width = state.getXExtent();
+        height = state.getYExtent();
+        numPlayers = state.getPlayerNumbers().length;
+
+        List<ResourceNode.ResourceView> resourceNodes = state.getAllResourceNodes();
+        obstacleBits = new long[(width * height + 63) >>> 6];
+        Map<Integer, Point> resourceMap = new HashMap<>();
+        for (ResourceNode.ResourceView resource : resourceNodes) {
+            int cell = resource.getYPosition() * width + resource.getXPosition();
+            obstacleBits[cell >>> 6] |= 1L << cell;
+            resourceMap.put(resource.getID(), new Point(resource.getXPosition(), resource.getYPosition()));
+        }
+        resources = Collections.unmodifiableMap(resourceMap);
+        distanceField = DistanceField.forMap(width, height, obstacleBits);
+
+        List<Unit.UnitView> footmen = state.getUnits(0);
+        List<Unit.UnitView> archers = state.getUnits(1);
+        numUnits = footmen.size() + archers.size();
+        numFootmen = footmen.size();
+        unitIds = new int[numUnits];
+        owners = new byte[numUnits];
+        attackRanges = new int[numUnits];
+        attackDamages = new int[numUnits];
+        maxHps = new int[numUnits];
+        int slot = 0;
+        for (Unit.UnitView unit : footmen) {
+            initializeSlot(slot++, unit, 0);
+        }
+        for (Unit.UnitView unit : archers) {
+            initializeSlot(slot++, unit, 1);
+        }
+        footmenMask = (numFootmen == 64) ? -1L : (1L << numFootmen) - 1;
+        symmetryClasses = new int[numUnits];
+        for (slot = 0; slot < numUnits; slot++) {
+            int other = 0;
+            while (!isInterchangeable(slot, other)) other++;
+            symmetryClasses[slot] = other;
+        }
+
+        Random random = new Random(ZOBRIST_SEED);
+        int maxHP = 0;
+        for (slot = 0; slot < numUnits; slot++) {
+            maxHP = Math.max(maxHP, maxHps[slot]);
+        }
+        hpKeyStride = maxHP + 1;
+        positionKeys = new long[numUnits * width * height];
+        hpKeys = new long[numUnits * hpKeyStride];
+        playerKeys = new long[numPlayers];
+        fillRandom(random, positionKeys);
+        fillRandom(random, hpKeys);
+        fillRandom(random, playerKeys);
+
+        long signature = combine(combine(combine(ZOBRIST_SEED, width), height), numFootmen);
+        for (long bits : obstacleBits) {
+            signature = combine(signature, bits);
+        }
+        for (slot = 0; slot < numUnits; slot++) {
+            signature = combine(signature, owners[slot]);
+            signature = combine(signature, attackRanges[slot]);
+            signature = combine(signature, attackDamages[slot]);
+            signature = combine(signature, maxHps[slot]);
+        }
+        this.signature = signature;
+    }
+
+    /**
+     * Mixes a value into a signature, in the manner of FNV-1a over whole values
+     * @param signature The signature so far
+     * @param value The value to mix in
+     * @return The new signature
+     */
+    static long combine(long signature, long value) {
+        return (signature ^ value) * 0x100000001B3L;
+    }
+
+    /**
+     * Copies a single unit's template into its slot
+     * @param slot The slot to populate
+     * @param unit The unit view to copy from
+     * @param owner The player controlling the unit
+     */
+    private void initializeSlot(int slot, Unit.UnitView unit, int owner) {
+        unitIds[slot] = unit.getID();
+        owners[slot] = (byte) owner;
+        attackRanges[slot] = unit.getTemplateView().getRange();
+        attackDamages[slot] = unit.getTemplateView().getBasicAttack();
+        maxHps[slot] = Math.max(Math.max(unit.getTemplateView().getBaseHealth(), unit.getHP()), 1);
+    }
+
+    /**
+     * Checks whether two units could trade places without changing the game, because they belong to the same
+     * player and have the same template
+     * @param slot1 The slot of the first unit
+     * @param slot2 The slot of the second unit
+     * @return True if the units are interchangeable
+     */
+    private boolean isInterchangeable(int slot1, int slot2) {
+        return owners[slot1] == owners[slot2] && attackRanges[slot1] == attackRanges[slot2]
+                && attackDamages[slot1] == attackDamages[slot2] && maxHps[slot1] == maxHps[slot2];
+    }
+
+    private static void fillRandom(Random random, long[] keys) {
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * Finds the slot holding a unit
+     * @param unitId The ID of the unit
+     * @return The unit's slot, or -1 if it is not tracked
+     */
+    int slotOf(int unitId) {
+        for (int slot = 0; slot < numUnits; slot++) {
+            if (unitIds[slot] == unitId) return slot;
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the number of unit slots in this context
+     * @return The number of units the episode started with
+     */
+    public int getNumUnits() {
+        return numUnits;
+    }
+
+    /**
+     * Gets a signature of the map and unit templates of this episode, which differs between maps with different
+     * sizes, obstacles or units
+     * @return The signature of the episode's static data
+     */
+    public long getSignature() {
+        return signature;
+    }
+
+    /**
+     * Gets the locations of the resources on the map
+     * @return An unmodifiable map of each resource's point-location to its respective ID
+     */
+    public Map<Integer, Point> getResources() {
+        return resources;
+    }
+}
@@ -5,15 +5,93 @@ import edu.cwru.sepia.agent.Agent;
 import edu.cwru.sepia.environment.model.history.History;
 import edu.cwru.sepia.environment.model.state.State;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
+/**
+ * Minimax agent with alpha-beta pruning for the footmen.
+ * <p>
+ * The first argument is the number of plys to search. Optional arguments of the form {@code name=value} follow it:
+ * <ul>
+ *     <li>{@code search=inplace|copy}: search one mutable state with make/unmake (default), or expand a cloned
+ *     {@link GameState} for every child</li>
+ *     <li>{@code ttMegabytes=N}: memory cap of the transposition table used by the in-place search, 0 to disable
+ *     it (default 16)</li>
+ *     <li>{@code timeBudgetMs=N}: deepen the in-place search one ply at a time until N milliseconds have passed,
+ *     instead of stopping at the given number of plys (default 0, no budget). The budget is counted from the start
+ *     of the turn, and the search leaves time for the rest of the turn, such as stopping and restarting pondering.
+ *     </li>
+ *     <li>{@code threads=N}: number of threads to split the root of the in-place search across (default 1)</li>
+ *     <li>{@code ordering=history|static}: order moves by killer moves and the history heuristic (default), or
+ *     statically, by action type and distance in the in-place search and by utility in the copy search</li>
+ *     <li>{@code variant=alphabeta|pvs}: search every move of the in-place search with the full window (default), or
+ *     use principal variation search with aspiration windows centred on the previous turn's score</li>
+ *     <li>{@code metrics=true}: count what each turn's search did, and expose the latest turn through JMX while an
+ *     episode is played, under a name with the player number and an id unique to the agent (default false)</li>
+ *     <li>{@code metricsFile=PATH}: also append every turn's metrics to a file at the end of each episode, as JSON
+ *     lines if the name ends in .json or .jsonl and as CSV otherwise; implies {@code metrics=true}</li>
+ *     <li>{@code book=true}: remember the result of every root search of the in-place search in an
+ *     {@link OpeningBook}, and play the remembered move instead of searching when a position searched at least as
+ *     deeply comes up again (default false)</li>
+ *     <li>{@code bookFile=PATH}: map the opening book from a file at start-up if it exists, and write it back at the
+ *     end of each episode; implies {@code book=true}. A book built on another map or with other search options is
+ *     not used, and is replaced by the book of this episode.</li>
+ *     <li>{@code ponder=true}: after each move of the in-place search, keep searching the position expected after
+ *     the archers' predicted reply on a background thread until the next turn, and reuse that search if the
+ *     prediction was right (default false)</li>
+ *     <li>{@code quiescence=N}: keep searching attacks only for up to N plys beyond the nominal depth, until the
+ *     player to move has no attack left or stands pat on the static utility (default 4, 0 to evaluate at the
+ *     nominal depth)</li>
+ *     <li>{@code decision=joint|factored}: search every joint move of the player to move (default), or decide
+ *     each unit's action in turn with a {@link FactoredSearcher}, whose cost grows linearly with the number of
+ *     units; it ignores the transposition table, book and pondering. A side of more than seven units does not
+ *     fit a packed joint move, so the factored search is used for it whatever the option says.</li>
+ * </ul>
+ * The opening book is also written by {@link #savePlayerData(OutputStream)} and read by
+ * {@link #loadPlayerData(InputStream)}.
+ */
 public class MinimaxAlphaBeta extends Agent {
 
     private final int numPlys;
+    private final boolean inPlace;
+    private final boolean factored;
+    private final TranspositionTable transpositionTable;
+    private final long timeBudgetMs;
+    private final transient ForkJoinPool pool;
+    private transient MapContext mapContext;
+    private transient StateTracker rootState;
+    private transient SearchArena arena;
+    private transient long expectedKey;
+    private transient int[] expectedVariation;
+    private MoveOrderer moveOrderer;
+    private final boolean historyOrdering;
+    private final boolean principalVariationSearch;
+    private final int quiescencePlys;
+    private double previousScore = Double.NaN;
+    private final transient SearchMetricsLog metricsLog;
+    private final String metricsFile;
+    private transient SearchMetrics metrics;
+    private transient OpeningBook openingBook;
+    private transient MapContext bookContext;
+    // Depth the last search under the time budget completed, which a book entry must match to be played
+    private transient int budgetDepth;
+    private final String bookFile;
+    private final transient Ponderer ponderer;
+    private transient AlphaBetaSearcher ponderedSearcher;
+    // When the current turn's search has to end, counted from the start of the turn, or 0 outside a turn
+    private transient long turnDeadline;
+    // Time recently spent on a turn after its search ended, which the next turn's search leaves free
+    private transient long turnReserveNanos;
 
     public MinimaxAlphaBeta(int playernum, String[] args)
     {
@@ -26,35 +104,185 @@ public class MinimaxAlphaBeta extends Agent {
         }
 
         numPlys = Integer.parseInt(args[0]);
+        inPlace = !"copy".equals(getOption(args, "search", "inplace"));
+        factored = "factored".equals(getOption(args, "decision", "joint"));
+        int ttMegabytes = Integer.parseInt(getOption(args, "ttMegabytes", "16"));
+        transpositionTable = (ttMegabytes > 0) ? new TranspositionTable(ttMegabytes) : null;
+        timeBudgetMs = Long.parseLong(getOption(args, "timeBudgetMs", "0"));
+        int threads = Integer.parseInt(getOption(args, "threads", "1"));
+        pool = (threads > 1) ? new ForkJoinPool(threads) : null;
+        historyOrdering = !"static".equals(getOption(args, "ordering", "history"));
+        principalVariationSearch = "pvs".equals(getOption(args, "variant", "alphabeta"));
+        quiescencePlys = Math.min(Integer.parseInt(getOption(args, "quiescence", "4")),
+                AlphaBetaSearcher.MAX_QUIESCENCE_PLYS);
+        metricsFile = getOption(args, "metricsFile", null);
+        if (metricsFile != null || Boolean.parseBoolean(getOption(args, "metrics", "false"))) {
+            metricsLog = new SearchMetricsLog(metricsFile != null);
+        } else {
+            metricsLog = null;
+        }
+        bookFile = getOption(args, "bookFile", null);
+        if (bookFile != null || Boolean.parseBoolean(getOption(args, "book", "false"))) {
+            openingBook = new OpeningBook();
+            if (bookFile != null && new File(bookFile).isFile()) {
+                try {
+                    openingBook = OpeningBook.map(new File(bookFile));
+                } catch (IOException e) {
+                    System.err.println("Could not load opening book " + bookFile + ": " + e.getMessage());
+                }
+            }
+        }
+        boolean ponder = Boolean.parseBoolean(getOption(args, "ponder", "false"));
+        ponderer = (inPlace && !factored && ponder) ? new Ponderer() : null;
+    }
+
+    /**
+     * Gets the time a search must end by
+     * @return The {@link System#nanoTime()} at which the time budget of the current turn runs out, or of a search
+     * starting now if it is not called during a turn, or Long.MAX_VALUE if there is no budget
+     */
+    private long getDeadline() {
+        if (turnDeadline != 0)
+            return turnDeadline;
+        return (timeBudgetMs > 0) ? System.nanoTime() + timeBudgetMs * 1000000L : Long.MAX_VALUE;
+    }
+
+    /**
+     * Looks up an optional agent argument of the form {@code name=value}
+     * @param args The agent arguments
+     * @param name The name of the option
+     * @param defaultValue The value to use if the option is not given
+     * @return The value of the option
+     */
+    private static String getOption(String[] args, String name, String defaultValue) {
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].startsWith(name + "=")) return args[i].substring(name.length() + 1);
+        }
+        return defaultValue;
     }
 
     @Override
     public Map<Integer, Action> initialStep(State.StateView newstate, History.HistoryView statehistory) {
+        // The static data of the episode is extracted once here and shared by every state searched until it ends
+        mapContext = new MapContext(newstate);
+        rootState = null;
+        arena = null;
+        expectedVariation = null;
+        moveOrderer = null;
         return middleStep(newstate, statehistory);
     }
 
     @Override
     public Map<Integer, Action> middleStep(State.StateView newstate, History.HistoryView statehistory) {
-        GameStateChild bestChild = alphaBetaSearch(new GameStateChild(newstate),
+        // The budget covers the whole turn, including the wait for pondering to stop and the work after the search,
+        // such as starting to ponder again
+        turnDeadline = (timeBudgetMs > 0) ? System.nanoTime() + timeBudgetMs * 1000000L - turnReserveNanos : 0;
+        if (mapContext == null)
+            mapContext = new MapContext(newstate);
+        // The root is kept from turn to turn, and only the units that changed are brought up to date
+        if (rootState == null) {
+            rootState = new StateTracker(newstate, mapContext);
+        } else {
+            rootState.update(newstate);
+        }
+        GameState root = new GameState(rootState);
+        // Pondering has to stop before the move orderer and transposition table are touched again
+        if (ponderer != null)
+            ponderedSearcher = ponderer.stop(root.getStateTracker().getHashKey());
+        if (historyOrdering) {
+            if (moveOrderer == null)
+                moveOrderer = new MoveOrderer(mapContext.getNumUnits());
+            moveOrderer.newSearch();
+        }
+        if (metricsLog != null) {
+            // The log is visible through JMX while an episode is being played
+            metricsLog.register(playernum);
+            metrics = new SearchMetrics(newstate.getTurnNumber());
+            metrics.start();
+        }
+        GameStateChild bestChild = alphaBetaSearch(new GameStateChild(null, root),
                 numPlys,
                 Double.NEGATIVE_INFINITY,
                 Double.POSITIVE_INFINITY);
+        if (metrics != null) {
+            metrics.stop();
+            if (!inPlace && !isFactored(rootState))
+                metrics.completedDepth(numPlys);
+            metricsLog.record(metrics);
+            metrics = null;
+        }
+        if (turnDeadline != 0) {
+            long overrun = System.nanoTime() - turnDeadline;
+            turnReserveNanos = Math.min(Math.max(overrun, turnReserveNanos * 15 / 16), timeBudgetMs * 1000000L / 2);
+            turnDeadline = 0;
+        }
         return bestChild.action;
     }
 
     @Override
     public void terminalStep(State.StateView newstate, History.HistoryView statehistory) {
+        if (ponderer != null)
+            ponderer.cancel();
+        if (metricsLog != null)
+            metricsLog.unregister();
+        if (metricsFile != null) {
+            try {
+                metricsLog.write(new File(metricsFile));
+            } catch (IOException e) {
+                System.err.println("Could not write search metrics to " + metricsFile + ": " + e.getMessage());
+            }
+        }
+        if (bookFile != null && openingBook != null) {
+            try {
+                writeOpeningBook(new File(bookFile));
+            } catch (IOException e) {
+                System.err.println("Could not write opening book " + bookFile + ": " + e.getMessage());
+            }
+        }
+    }
 
+    /**
+     * Writes the opening book to a file. The book is written to a new temporary file beside it first and then moved
+     * over it, so that a mapped copy of the old book stays intact, and agents writing the same file at once each
+     * replace it with a whole book rather than mixing their writes.
+     * @param file The file to write
+     * @throws IOException If the file cannot be written
+     */
+    private void writeOpeningBook(File file) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        Path temporary = Files.createTempFile(directory.toPath(), file.getName() + ".", ".tmp");
+        try {
+            try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(temporary))) {
+                openingBook.write(os);
+            }
+            Files.move(temporary, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
     }
 
     @Override
     public void savePlayerData(OutputStream os) {
-
+        if (openingBook == null)
+            return;
+        try {
+            openingBook.write(os);
+        } catch (IOException e) {
+            System.err.println("Could not save opening book: " + e.getMessage());
+        }
     }
 
     @Override
     public void loadPlayerData(InputStream is) {
-
+        if (openingBook == null || is == null)
+            return;
+        try {
+            openingBook = OpeningBook.read(is);
+            bookContext = null;
+        } catch (IOException e) {
+            System.err.println("Could not load opening book: " + e.getMessage());
+        }
     }
 
     /**
@@ -74,57 +302,338 @@ public class MinimaxAlphaBeta extends Agent {
      */
         public GameStateChild alphaBetaSearch(GameStateChild node, int depth, double alpha, double beta) {
 
-            // Obtain ordered list of children
-            List<GameStateChild> children = orderChildrenWithHeuristics(node.state.getChildren());
+            if (isFactored(node.state.getStateTracker()))
+                return factoredSearch(node, depth);
+            if (inPlace)
+                return alphaBetaSearchInPlace(node, depth, alpha, beta);
+
+            if (metrics != null)
+                metrics.node(node.state.getStateTracker().getPly());
 
-            // Return current node if it is a terminal node or if the remaining depth is zero
-            if (depth <= 0 || children.isEmpty())
+            // Return current node if the remaining depth is zero, before generating any children, valued by searching
+            // its pending attacks
+            if (depth <= 0) {
+                node.state.setSearchValue(quiescence(node.state, alpha, beta, quiescencePlys));
                 return node;
+            }
+
+            // Obtain ordered list of children, and return current node if it is a terminal node
+            List<GameStateChild> children = orderChildrenWithHeuristics(node.state.getChildren());
+            if (children.isEmpty()) {
+                if (metrics != null)
+                    metrics.leaf();
+                node.state.setSearchValue(node.state.getUtility());
+                return node;
+            }
 
-            // Search children
+            // Search children, backing up each child's minimax value separately from its utility
+            GameStateChild best = null;
+            int index = 0;
             if (node.state.getPlayer() == 0) {
             // maximizing player
                 for (GameStateChild child : children) {
-                    node = max(node, alphaBetaSearch(child, depth - 1, alpha, beta));
-                    alpha = Math.max(alpha, node.state.getUtility());
-                    if (beta <= alpha) break;
+                    child.state.setSearchValue(alphaBetaSearch(child, depth - 1, alpha, beta).state.getSearchValue());
+                    best = max(best, child);
+                    alpha = Math.max(alpha, best.state.getSearchValue());
+                    if (beta <= alpha) {
+                        recordCutoff(node, child, depth, index);
+                        break;
+                    }
+                    index++;
                 }
             } else {
             // minimizing player
                 for (GameStateChild child : children) {
-                    node = min(node, alphaBetaSearch(child, depth - 1, alpha, beta));
-                    beta = Math.min(beta, node.state.getUtility());
-                    if (beta <= alpha) break;
+                    child.state.setSearchValue(alphaBetaSearch(child, depth - 1, alpha, beta).state.getSearchValue());
+                    best = min(best, child);
+                    beta = Math.min(beta, best.state.getSearchValue());
+                    if (beta <= alpha) {
+                        recordCutoff(node, child, depth, index);
+                        break;
+                    }
+                    index++;
                 }
             }
 
             // Return best child
+            return best;
+
+        }
+
+    /**
+     * Values a state at or beyond the nominal depth by searching on through attacks until it is quiet. The player to
+     * move may stand pat on the static utility instead of attacking.
+     * @param state The state to value
+     * @param alpha The current best value for the maximizing node from this node to the root
+     * @param beta The current best value for the minimizing node from this node to the root
+     * @param plysLeft The number of quiescence plys that may still be searched below this state
+     * @return The value of the state, bounded by alpha and beta
+     */
+    private double quiescence(GameState state, double alpha, double beta, int plysLeft) {
+        List<GameStateChild> children = (plysLeft > 0)
+                ? state.getAttackChildren() : Collections.<GameStateChild>emptyList();
+        double best = state.getUtility();
+        boolean maximizing = state.getPlayer() == 0;
+        if (children.isEmpty() || (maximizing ? best >= beta : best <= alpha)) {
+            if (metrics != null)
+                metrics.leaf();
+            return best;
+        }
+        if (maximizing) {
+            alpha = Math.max(alpha, best);
+        } else {
+            beta = Math.min(beta, best);
+        }
+        int index = 0;
+        for (GameStateChild child : children) {
+            if (metrics != null)
+                metrics.node(child.state.getStateTracker().getPly());
+            double value = quiescence(child.state, alpha, beta, plysLeft - 1);
+            best = maximizing ? Math.max(best, value) : Math.min(best, value);
+            if (maximizing) {
+                alpha = Math.max(alpha, best);
+            } else {
+                beta = Math.min(beta, best);
+            }
+            if (beta <= alpha) {
+                if (metrics != null)
+                    metrics.betaCutoff(index);
+                break;
+            }
+            index++;
+        }
+        return best;
+    }
+
+    /**
+     * Records a child that caused a beta cutoff in the metrics and with the move orderer, if there are any
+     * @param node The node being searched
+     * @param child The child that caused the cutoff
+     * @param depth The remaining number of plys under the node
+     * @param index The index of the child among the node's ordered children
+     */
+    private void recordCutoff(GameStateChild node, GameStateChild child, int depth, int index) {
+        if (metrics != null)
+            metrics.betaCutoff(index);
+        if (moveOrderer != null) {
+            StateTracker state = node.state.getStateTracker();
+            moveOrderer.recordCutoff(state, child.state.getMove(), depth, state.getPly());
+        }
+    }
+
+    /**
+     * Runs the alpha beta search over a single copy of the node's state, applying and undoing moves in place.
+     * The search deepens iteratively up to the given depth, or for as long as the time budget allows if one is set.
+     * @param node The action and state to search from
+     * @param depth The remaining number of plys under this node
+     * @param alpha The current best value for the maximizing node
+     * @param beta The current best value for the minimizing node
+     * @return The child reached by the best joint move, or the node itself if there is none
+     */
+    private GameStateChild alphaBetaSearchInPlace(GameStateChild node, int depth, double alpha, double beta) {
+        long deadline = getDeadline();
+        int maxDepth = (timeBudgetMs > 0) ? AlphaBetaSearcher.MAX_DEPTH : depth;
+        // The arena is kept for the whole episode, and its state is reset to the root in place
+        StateTracker root = node.state.getStateTracker();
+        if (arena == null || arena.getContext() != root.getContext() || arena.getMaxDepth() < maxDepth)
+            arena = new SearchArena(root, maxDepth);
+        StateTracker state = arena.reset(root);
+        bindOpeningBook(root.getContext());
+        AlphaBetaSearcher pondered = ponderedSearcher;
+        ponderedSearcher = null;
+        // Under a time budget the nominal depth says nothing about how deep a search would go, so the book is only
+        // played once a search has shown how deep the budget reaches
+        int bookMove = (deadline == Long.MAX_VALUE) ? probeOpeningBook(state, depth)
+                : (budgetDepth > 0) ? probeOpeningBook(state, budgetDepth) : StateTracker.NO_MOVE;
+        if (bookMove != StateTracker.NO_MOVE)
+            return makeMove(new StateTracker(state), bookMove);
+
+        AlphaBetaSearcher searcher;
+        int bestMove;
+        int[] variation = (expectedVariation != null && state.getHashKey() == expectedKey) ? expectedVariation : null;
+        expectedVariation = null;
+        if (pondered != null && pondered.getCompletedDepth() >= maxDepth) {
+            // The prediction was right and pondering already searched the position as deeply as asked
+            searcher = pondered;
+            bestMove = pondered.getPrincipalMove(0);
+            if (metrics != null)
+                metrics.completedDepth(pondered.getCompletedDepth());
+        } else {
+            // Entries stored while pondering the right position count as part of this search
+            if (transpositionTable != null && pondered == null)
+                transpositionTable.newSearch();
+            searcher = new AlphaBetaSearcher(arena, transpositionTable, pool, moveOrderer);
+            searcher.setPrincipalVariationSearch(principalVariationSearch);
+            searcher.setQuiescencePlys(quiescencePlys);
+            searcher.setExpectedScore(previousScore);
+            searcher.setMetrics(metrics);
+            if (variation != null)
+                searcher.setExpectedVariation(variation);
+            bestMove = (maxDepth > 1 || deadline != Long.MAX_VALUE)
+                    ? searcher.iterativeDeepening(maxDepth, deadline)
+                    : searcher.search(depth, alpha, beta);
+        }
+        if (bestMove == StateTracker.NO_MOVE)
+            return node;
+        previousScore = searcher.getScore();
+        if (deadline != Long.MAX_VALUE)
+            budgetDepth = searcher.getCompletedDepth();
+        if (openingBook != null)
+            openingBook.record(state.getHashKey(), searcher.getCompletedDepth(), previousScore, bestMove);
+        // The move is made on a copy, since the arena's state is reset by the next search
+        state = new StateTracker(state);
+        GameStateChild child = makeMove(state, bestMove);
+
+        // Keep the rest of the principal variation for the position expected next turn
+        StateTracker predicted = predictReply(state, searcher.getPrincipalMove(1));
+        if (predicted != null) {
+            expectedKey = predicted.getHashKey();
+            int length = 0;
+            while (searcher.getPrincipalMove(length + 2) != StateTracker.NO_MOVE) length++;
+            expectedVariation = new int[length];
+            for (int ply = 0; ply < length; ply++) {
+                expectedVariation[ply] = searcher.getPrincipalMove(ply + 2);
+            }
+            if (ponderer != null) {
+                if (transpositionTable != null)
+                    transpositionTable.newSearch();
+                ponderer.start(predicted, transpositionTable, moveOrderer, principalVariationSearch, quiescencePlys,
+                        previousScore, maxDepth);
+            }
+        }
+        return child;
+    }
+
+    /**
+     * Checks whether a state is searched with the factored search, either because it was asked for or because a
+     * player has too many units for packed joint moves
+     * @param state The state to search from
+     * @return True if the factored search is used
+     */
+    private boolean isFactored(StateTracker state) {
+        return factored || !state.fitsPackedMoves();
+    }
+
+    /**
+     * Runs the factored search over a copy of the node's state, deciding each unit's action in turn. The search
+     * deepens iteratively up to the given depth, or for as long as the time budget allows if one is set.
+     * @param node The action and state to search from
+     * @param depth The remaining number of plys under this node
+     * @return The child reached by the best joint move found, or the node itself if there is none
+     */
+    private GameStateChild factoredSearch(GameStateChild node, int depth) {
+        StateTracker state = new StateTracker(node.state.getStateTracker());
+        long deadline = getDeadline();
+        int maxDepth = (timeBudgetMs > 0) ? FactoredSearcher.MAX_DEPTH : depth;
+        FactoredSearcher searcher = new FactoredSearcher(state);
+        searcher.setMetrics(metrics);
+        if (!searcher.iterativeDeepening(maxDepth, deadline))
             return node;
+        previousScore = searcher.getScore();
+        Map<Integer, Action> actions = searcher.getBestActions();
+        searcher.makeBestMove();
+        return new GameStateChild(actions, new GameState(state));
+    }
 
+    /**
+     * Predicts the position the footmen will face next turn, after the archers' reply to the move just chosen
+     * @param state The position after the chosen move, with the archers to move
+     * @param reply The archers' reply predicted by the search, or {@link StateTracker#NO_MOVE} to take the
+     *              transposition table's move instead
+     * @return The predicted position, made the root of a new search, or null if no legal reply is known
+     */
+    private StateTracker predictReply(StateTracker state, int reply) {
+        if (reply == StateTracker.NO_MOVE && transpositionTable != null) {
+            TranspositionTable.Entry entry = new TranspositionTable.Entry();
+            if (transpositionTable.probe(state.getHashKey(), entry))
+                reply = entry.move;
         }
+        // A legal preferred move is always generated first
+        JointMoveGenerator moves = new JointMoveGenerator(state.getNumUnits());
+        moves.reset(state, reply, StateTracker.NO_MOVE);
+        if (reply == StateTracker.NO_MOVE || moves.next() != reply)
+            return null;
+        StateTracker predicted = new StateTracker(state);
+        predicted.makeMove(reply);
+        predicted.resetPly();
+        return predicted;
+    }
 
     /**
-     * Finds the node with the minimum utility value
-     * @param node1 A node in the game state tree
+     * Makes sure the opening book was built on the episode's map with this agent's search options, replacing it with
+     * an empty book if it was not
+     * @param context The static data of the episode being searched
+     */
+    private void bindOpeningBook(MapContext context) {
+        if (openingBook == null || context == bookContext)
+            return;
+        // Options that change which move a search picks, besides its depth, which every entry records
+        long signature = context.getSignature();
+        signature = MapContext.combine(signature, quiescencePlys);
+        signature = MapContext.combine(signature, historyOrdering ? 1 : 0);
+        signature = MapContext.combine(signature, principalVariationSearch ? 1 : 0);
+        if (!openingBook.bind(signature)) {
+            System.err.println("Opening book was built on another map or with other search options; not using it");
+            openingBook = new OpeningBook();
+            openingBook.bind(signature);
+        }
+        bookContext = context;
+    }
+
+    /**
+     * Looks up a position in the opening book
+     * @param state The position
+     * @param depth The depth the position would be searched to
+     * @return The book move, if the position was searched at least as deeply and the move is legal in it, or
+     * {@link StateTracker#NO_MOVE} otherwise
+     */
+    private int probeOpeningBook(StateTracker state, int depth) {
+        TranspositionTable.Entry entry = new TranspositionTable.Entry();
+        if (openingBook == null || !openingBook.probe(state.getHashKey(), entry) || entry.depth < depth)
+            return StateTracker.NO_MOVE;
+        // A legal preferred move is always generated first
+        JointMoveGenerator moves = new JointMoveGenerator(state.getNumUnits());
+        moves.reset(state, entry.move, StateTracker.NO_MOVE);
+        if (moves.next() != entry.move)
+            return StateTracker.NO_MOVE;
+        previousScore = entry.value;
+        return entry.move;
+    }
+
+    /**
+     * Makes a joint move on a state
+     * @param state The state to move from, which is left in the resulting state
+     * @param move The joint move
+     * @return The child reached by the move
+     */
+    private static GameStateChild makeMove(StateTracker state, int move) {
+        Map<Integer, Action> actions = state.getActions(move);
+        state.makeMove(move);
+        return new GameStateChild(actions, new GameState(state));
+    }
+
+    /**
+     * Finds the node with the minimum backed-up search value
+     * @param node1 A node in the game state tree, or null if there is none yet
      * @param node2 Another node in the game state tree
-     * @return The node with the lesser utility, or node1 if their utilities are equal
+     * @return The node with the lesser value, or node1 if their values are equal
      */
     private GameStateChild min(GameStateChild node1, GameStateChild node2) {
-        if (node1.action == null)
+        if (node1 == null)
             return node2;
-        return (node2.state.getUtility() < node1.state.getUtility()) ? node2 : node1;
+        return (node2.state.getSearchValue() < node1.state.getSearchValue()) ? node2 : node1;
     }
 
     /**
-     * Finds the node with the maximum utility value
-     * @param node1 A node in the game state tree
+     * Finds the node with the maximum backed-up search value
+     * @param node1 A node in the game state tree, or null if there is none yet
      * @param node2 Another node in the game state tree
-     * @return The node with the greater utility, or node1 if their utilities are equal
+     * @return The node with the greater value, or node1 if their values are equal
      */
     private GameStateChild max(GameStateChild node1, GameStateChild node2) {
-        if (node1.action == null)
+        if (node1 == null)
             return node2;
-        return (node2.state.getUtility() > node1.state.getUtility()) ? node2 : node1;
+        return (node2.state.getSearchValue() > node1.state.getSearchValue()) ? node2 : node1;
     }
 
     /**
@@ -137,12 +646,30 @@ public class MinimaxAlphaBeta extends Agent {
      *
      * Include a good comment about what your heuristics are and why you chose them.
      *
+     * Children are ordered by killer moves and the history heuristic: joint moves that recently caused cutoffs at
+     * the same ply come first, then those whose unit actions have caused the most cutoffs. This needs no
+     * evaluation of the children. With static ordering, the children are instead sorted by utility.
+     *
      * @param children
      * @return The list of children sorted by your heuristic.
      */
     public List<GameStateChild> orderChildrenWithHeuristics(List<GameStateChild> children) {
-        Collections.sort(children, (a, b) -> Double.compare(a.state.getUtility(), b.state.getUtility()));
+        if (moveOrderer != null) {
+            Collections.sort(children, (a, b) -> Integer.compare(score(b), score(a)));
+            return children;
+        }
+        // Best utility for the player who chooses between the children first; the sort is stable, so ties keep the
+        // generator's order of attacks before steps
+        if (!children.isEmpty() && children.get(0).state.getPlayer() != 0) {
+            Collections.sort(children, (a, b) -> Double.compare(b.state.getUtility(), a.state.getUtility()));
+        } else {
+            Collections.sort(children, (a, b) -> Double.compare(a.state.getUtility(), b.state.getUtility()));
+        }
         return children;
     }
 
+    private int score(GameStateChild child) {
+        return moveOrderer.score(child.state.getStateTracker(), child.state.getMove());
+    }
+
 }
@@ -0,0 +1,115 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.action.Action;
+import edu.cwru.sepia.agent.Agent;
+import edu.cwru.sepia.environment.model.history.History;
+import edu.cwru.sepia.environment.model.state.State;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Monte Carlo tree search agent for the footmen, an alternative to {@link MinimaxAlphaBeta} over the same
+ * {@link StateTracker} model.
+ * <p>
+ * Every turn runs a {@link UctSearcher} for a fixed time and plays the root move it visited most often. The first
+ * argument is the time budget of a turn in milliseconds. Optional arguments of the form {@code name=value} follow it:
+ * <ul>
+ *     <li>{@code threads=N}: number of threads to search the shared tree on (default the number of processors)</li>
+ *     <li>{@code playoutDepth=N}: number of joint moves played out from each new node before it is evaluated
+ *     (default 8)</li>
+ *     <li>{@code exploration=C}: exploration constant of the UCT rule (default 0.7)</li>
+ *     <li>{@code seed=N}: seed of the random playouts of the first turn (default 0)</li>
+ * </ul>
+ */
+public class MonteCarloTreeSearch extends Agent {
+
+    private final long timeBudgetMs;
+    private final int threads;
+    private final int playoutDepth;
+    private final double exploration;
+    private long seed;
+    private final transient ExecutorService executor;
+    private transient MapContext mapContext;
+    private transient StateTracker rootState;
+
+    public MonteCarloTreeSearch(int playernum, String[] args)
+    {
+        super(playernum);
+
+        if(args.length < 1)
+        {
+            System.err.println("You must specify the time budget of a turn in milliseconds");
+            System.exit(1);
+        }
+
+        timeBudgetMs = Long.parseLong(args[0]);
+        threads = Integer.parseInt(getOption(args, "threads",
+                Integer.toString(Runtime.getRuntime().availableProcessors())));
+        playoutDepth = Integer.parseInt(getOption(args, "playoutDepth", "8"));
+        exploration = Double.parseDouble(getOption(args, "exploration", "0.7"));
+        seed = Long.parseLong(getOption(args, "seed", "0"));
+        executor = (threads > 1) ? Executors.newFixedThreadPool(threads - 1, runnable -> {
+            Thread thread = new Thread(runnable, "uct-search");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /**
+     * Looks up an optional agent argument of the form {@code name=value}
+     * @param args The agent arguments
+     * @param name The name of the option
+     * @param defaultValue The value to use if the option is not given
+     * @return The value of the option
+     */
+    private static String getOption(String[] args, String name, String defaultValue) {
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].startsWith(name + "=")) return args[i].substring(name.length() + 1);
+        }
+        return defaultValue;
+    }
+
+    @Override
+    public Map<Integer, Action> initialStep(State.StateView newstate, History.HistoryView statehistory) {
+        mapContext = new MapContext(newstate);
+        rootState = null;
+        return middleStep(newstate, statehistory);
+    }
+
+    @Override
+    public Map<Integer, Action> middleStep(State.StateView newstate, History.HistoryView statehistory) {
+        long deadline = System.nanoTime() + timeBudgetMs * 1000000L;
+        if (mapContext == null)
+            mapContext = new MapContext(newstate);
+        if (rootState == null) {
+            rootState = new StateTracker(newstate, mapContext);
+        } else {
+            rootState.update(newstate);
+        }
+        UctSearcher searcher = new UctSearcher(rootState, exploration, playoutDepth);
+        int[] move = searcher.search(deadline, executor, threads, seed);
+        // Each turn gets different playouts, but a run with the same seed is repeatable on one thread
+        seed += threads;
+        return (move == null) ? Collections.<Integer, Action>emptyMap() : rootState.getActions(move, move.length);
+    }
+
+    @Override
+    public void terminalStep(State.StateView newstate, History.HistoryView statehistory) {
+
+    }
+
+    @Override
+    public void savePlayerData(OutputStream os) {
+
+    }
+
+    @Override
+    public void loadPlayerData(InputStream is) {
+
+    }
+}
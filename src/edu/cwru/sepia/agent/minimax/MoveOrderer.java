@@ -0,0 +1,161 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.Arrays;
+
+/**
+ * This class orders joint moves by the killer move and history heuristics.
+ * <p>
+ * Whenever a joint move causes a beta cutoff, it becomes one of the two killer moves of its ply, to be tried early
+ * at the other nodes of that ply, and each unit's part of it gains history in proportion to the depth searched
+ * below it. History is kept per (unit slot, action code), so a step or attack that keeps refuting positions is
+ * tried first wherever that unit can play it. Both are much cheaper to consult than evaluating every child.
+ * <p>
+ * An orderer is not thread-safe; searches running in parallel each work on a copy.
+ */
+public class MoveOrderer {
+
+    public static final int KILLERS_PER_PLY = 2;
+
+    // Killer moves outrank any history score when ordering whole joint moves
+    private static final int KILLER_SCORE = Integer.MAX_VALUE / 2;
+
+    // History is halved once any entry reaches this, so that recent cutoffs keep their weight
+    private static final int MAX_HISTORY = 1 << 20;
+
+    private final int[][] killers;
+    private final int[] history;
+    private final int[] movers;
+
+    /**
+     * This constructor creates an empty orderer for states with the given number of units
+     * @param numUnits The number of units in the states to be ordered
+     */
+    public MoveOrderer(int numUnits) {
+        killers = new int[AlphaBetaSearcher.MAX_DEPTH + 1][KILLERS_PER_PLY];
+        history = new int[numUnits * (StateTracker.ACTION_MASK + 1)];
+        movers = new int[numUnits];
+        clearKillers();
+    }
+
+    /**
+     * This constructor copies the killer moves and history of another orderer
+     * @param orderer The orderer to copy
+     */
+    public MoveOrderer(MoveOrderer orderer) {
+        killers = new int[orderer.killers.length][];
+        for (int ply = 0; ply < killers.length; ply++) {
+            killers[ply] = orderer.killers[ply].clone();
+        }
+        history = orderer.history.clone();
+        movers = new int[orderer.movers.length];
+    }
+
+    /**
+     * Copies the killer moves and history of another orderer for the same number of units into this one, reusing
+     * this orderer's arrays
+     * @param orderer The orderer to copy
+     */
+    public void copyFrom(MoveOrderer orderer) {
+        for (int ply = 0; ply < killers.length; ply++) {
+            System.arraycopy(orderer.killers[ply], 0, killers[ply], 0, KILLERS_PER_PLY);
+        }
+        System.arraycopy(orderer.history, 0, history, 0, history.length);
+    }
+
+    /**
+     * Prepares for a search from a new root. Killer moves are forgotten, since plys no longer line up with the
+     * previous search, and history is aged.
+     */
+    public void newSearch() {
+        clearKillers();
+        ageHistory();
+    }
+
+    private void clearKillers() {
+        for (int[] plyKillers : killers) {
+            Arrays.fill(plyKillers, StateTracker.NO_MOVE);
+        }
+    }
+
+    private void ageHistory() {
+        for (int i = 0; i < history.length; i++) {
+            history[i] >>= 1;
+        }
+    }
+
+    /**
+     * Records a joint move that caused a beta cutoff
+     * @param state The state the move was made from
+     * @param move The joint move
+     * @param depth The number of plys searched below the state
+     * @param ply The distance of the state from the root
+     */
+    public void recordCutoff(StateTracker state, int move, int depth, int ply) {
+        int[] plyKillers = killers[Math.min(ply, killers.length - 1)];
+        if (plyKillers[0] != move) {
+            plyKillers[1] = plyKillers[0];
+            plyKillers[0] = move;
+        }
+        int numMovers = state.getMovers(movers);
+        for (int i = 0; i < numMovers; i++) {
+            int index = historyIndex(movers[i], move, i);
+            history[index] += depth * depth;
+            if (history[index] >= MAX_HISTORY) ageHistory();
+        }
+    }
+
+    /**
+     * Gets a killer move of a ply
+     * @param ply The distance from the root
+     * @param index Which killer, the most recent being 0
+     * @return The killer move, or {@link StateTracker#NO_MOVE} if there is none
+     */
+    public int getKiller(int ply, int index) {
+        return killers[Math.min(ply, killers.length - 1)][index];
+    }
+
+    /**
+     * Sorts a unit's action codes by descending history score. The sort is stable, so codes with equal history keep
+     * their static order.
+     * @param slot The unit's slot
+     * @param codes The unit's action codes
+     * @param count The number of action codes
+     */
+    public void sortUnitActions(int slot, int[] codes, int count) {
+        int base = slot * (StateTracker.ACTION_MASK + 1);
+        for (int i = 1; i < count; i++) {
+            int code = codes[i];
+            int score = history[base + code];
+            int j = i;
+            while (j > 0 && history[base + codes[j - 1]] < score) {
+                codes[j] = codes[j - 1];
+                j--;
+            }
+            codes[j] = code;
+        }
+    }
+
+    /**
+     * Scores a joint move for ordering among its siblings
+     * @param state The state the move leads to
+     * @param move The joint move that led to the state
+     * @return The ordering score of the move, higher being tried first
+     */
+    public int score(StateTracker state, int move) {
+        int ply = state.getPly() - 1;
+        for (int index = 0; index < KILLERS_PER_PLY; index++) {
+            if (ply >= 0 && getKiller(ply, index) == move) return KILLER_SCORE - index;
+        }
+        int score = 0;
+        int numMovers = state.getMovers(state.getLastPlayer(), movers);
+        for (int i = 0; i < numMovers; i++) {
+            score += history[historyIndex(movers[i], move, i)];
+        }
+        return score;
+    }
+
+    private static int historyIndex(int slot, int move, int i) {
+        int code = (move >>> (i * StateTracker.BITS_PER_UNIT)) & StateTracker.ACTION_MASK;
+        return slot * (StateTracker.ACTION_MASK + 1) + code;
+    }
+}
@@ -0,0 +1,236 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class is a persistent cache of searched root positions: for each {@link StateTracker#getHashKey()}, the
+ * depth it was searched to, its score and the best joint move found.
+ * <p>
+ * A book is stored as a small header followed by fixed-size entries sorted by key, so a book file can be memory
+ * mapped and searched in place instead of being read into the heap. Positions recorded while the agent runs are
+ * kept in memory beside it, and merged into it when the book is written out again.
+ * <p>
+ * Keys only identify unit positions and HP, so equal keys on two maps, or under two search configurations, would
+ * share moves that do not apply to both. The header therefore holds the signature of the map and configuration the
+ * book was built with, and {@link #bind(long)} refuses a book built with another one.
+ */
+public class OpeningBook {
+
+    private static final int MAGIC = 0x4D4D424B;
+    private static final int VERSION = 2;
+    // magic, version, entry count, signature
+    private static final int HEADER_SIZE = 3 * Integer.BYTES + Long.BYTES;
+    private static final int SIGNATURE_OFFSET = 3 * Integer.BYTES;
+    // key, score, move, depth
+    private static final int ENTRY_SIZE = Long.BYTES + Double.BYTES + 2 * Integer.BYTES;
+
+    private final ByteBuffer stored;
+    private final int storedCount;
+    private long signature;
+    private final Map<Long, TranspositionTable.Entry> recorded = new HashMap<>();
+
+    /**
+     * This constructor creates an empty book
+     */
+    public OpeningBook() {
+        this(null);
+    }
+
+    private OpeningBook(ByteBuffer stored) {
+        if (stored != null && (stored.limit() < HEADER_SIZE || stored.getInt(0) != MAGIC
+                || stored.getInt(Integer.BYTES) != VERSION))
+            throw new IllegalArgumentException("Not an opening book");
+        this.stored = stored;
+        this.storedCount = (stored != null) ? stored.getInt(2 * Integer.BYTES) : 0;
+        this.signature = (stored != null) ? stored.getLong(SIGNATURE_OFFSET) : 0;
+        if (stored != null && stored.limit() < HEADER_SIZE + (long) storedCount * ENTRY_SIZE)
+            throw new IllegalArgumentException("Truncated opening book");
+    }
+
+    /**
+     * Maps a book file into memory, without reading its entries into the heap
+     * @param file The book file
+     * @return The book stored in the file
+     * @throws IOException If the file cannot be mapped or is not a book
+     */
+    public static OpeningBook map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new OpeningBook(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads a book from a stream, such as one given to {@link MinimaxAlphaBeta#loadPlayerData(InputStream)}
+     * @param is The stream to read the whole of
+     * @return The book read from the stream
+     * @throws IOException If the stream cannot be read or does not hold a book
+     */
+    public static OpeningBook read(InputStream is) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n = is.read(buffer); n >= 0; n = is.read(buffer)) {
+            bytes.write(buffer, 0, n);
+        }
+        try {
+            return new OpeningBook(ByteBuffer.wrap(bytes.toByteArray()));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * Ties the book to the map and search configuration it is used with. A book without positions takes on the
+     * signature, while a book with positions only accepts the one it was built with.
+     * @param signature The signature of the map and search configuration, such as from
+     *                  {@link MapContext#getSignature()}
+     * @return True if the book may be used with the signature
+     */
+    public boolean bind(long signature) {
+        if (this.signature == signature)
+            return true;
+        if (size() > 0)
+            return false;
+        this.signature = signature;
+        return true;
+    }
+
+    /**
+     * Gets the signature of the map and search configuration the book was built with
+     * @return The signature, or 0 if the book has not been bound to one
+     */
+    public long getSignature() {
+        return signature;
+    }
+
+    /**
+     * Looks up a position in the book
+     * @param key The Zobrist key of the position
+     * @param entry The holder to fill with the depth, score and move of the position
+     * @return True if the position is in the book
+     */
+    public boolean probe(long key, TranspositionTable.Entry entry) {
+        TranspositionTable.Entry found = recorded.get(key);
+        if (found != null) {
+            copy(found, entry);
+            return true;
+        }
+        int index = findStored(key);
+        if (index < 0)
+            return false;
+        readStored(index, entry);
+        return true;
+    }
+
+    /**
+     * Records the result of searching a position, unless the book already has a deeper result for it
+     * @param key The Zobrist key of the position
+     * @param depth The depth the position was searched to
+     * @param score The score found for the position
+     * @param move The best joint move found
+     */
+    public void record(long key, int depth, double score, int move) {
+        TranspositionTable.Entry entry = new TranspositionTable.Entry();
+        if (probe(key, entry) && entry.depth > depth)
+            return;
+        entry.depth = depth;
+        entry.value = score;
+        entry.move = move;
+        entry.bound = TranspositionTable.EXACT;
+        recorded.put(key, entry);
+    }
+
+    /**
+     * Gets the number of positions in the book
+     * @return The number of stored and recorded positions, counting a position stored and recorded again once
+     */
+    public int size() {
+        int size = storedCount;
+        for (long key : recorded.keySet()) {
+            if (findStored(key) < 0) size++;
+        }
+        return size;
+    }
+
+    /**
+     * Writes the book, including the positions recorded since it was loaded
+     * @param os The stream to write to
+     * @throws IOException If the stream cannot be written
+     */
+    public void write(OutputStream os) throws IOException {
+        // Unsigned order, to match the binary search over stored entries
+        Map<Long, TranspositionTable.Entry> entries = new TreeMap<>(Long::compareUnsigned);
+        for (int i = 0; i < storedCount; i++) {
+            TranspositionTable.Entry entry = new TranspositionTable.Entry();
+            readStored(i, entry);
+            entries.put(stored.getLong(entryOffset(i)), entry);
+        }
+        entries.putAll(recorded);
+
+        DataOutputStream out = new DataOutputStream(os);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(entries.size());
+        out.writeLong(signature);
+        for (Map.Entry<Long, TranspositionTable.Entry> entry : entries.entrySet()) {
+            out.writeLong(entry.getKey());
+            out.writeDouble(entry.getValue().value);
+            out.writeInt(entry.getValue().move);
+            out.writeInt(entry.getValue().depth);
+        }
+        out.flush();
+    }
+
+    /**
+     * Binary searches the stored entries for a key
+     * @param key The key to find
+     * @return The index of the stored entry, or -1 if there is none
+     */
+    private int findStored(long key) {
+        int low = 0;
+        int high = storedCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int comparison = Long.compareUnsigned(stored.getLong(entryOffset(mid)), key);
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private void readStored(int index, TranspositionTable.Entry entry) {
+        int offset = entryOffset(index);
+        entry.value = stored.getDouble(offset + Long.BYTES);
+        entry.move = stored.getInt(offset + Long.BYTES + Double.BYTES);
+        entry.depth = stored.getInt(offset + Long.BYTES + Double.BYTES + Integer.BYTES);
+        entry.bound = TranspositionTable.EXACT;
+    }
+
+    private static int entryOffset(int index) {
+        return HEADER_SIZE + index * ENTRY_SIZE;
+    }
+
+    private static void copy(TranspositionTable.Entry from, TranspositionTable.Entry to) {
+        to.value = from.value;
+        to.depth = from.depth;
+        to.bound = from.bound;
+        to.move = from.move;
+    }
+}
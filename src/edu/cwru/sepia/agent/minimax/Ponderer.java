@@ -0,0 +1,101 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class searches the position the agent expects to face next on a background thread, while the rest of the
+ * game takes its turn.
+ * <p>
+ * After a move is chosen, the expected reply from the principal variation is applied to get the predicted next
+ * position, and {@link #start} deepens a search of it iteratively until it is stopped or reaches its maximum depth.
+ * The search shares the agent's transposition table and move orderer, which is safe because the agent calls
+ * {@link #stop(long)} before touching either again. If the real position turns out to be the predicted one, the
+ * finished searcher is handed back so that its move can be played or its results carried on from; otherwise the
+ * search is stopped and its work is left in the transposition table, where it may still help.
+ * <p>
+ * The ponderer keeps its own {@link SearchArena} from one prediction to the next, so pondering allocates no search
+ * state either.
+ */
+public class Ponderer {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "minimax-ponder");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private SearchArena arena;
+    private AlphaBetaSearcher searcher;
+    private Future<?> task;
+    private long key;
+
+    /**
+     * Starts searching a predicted position, stopping any search already running
+     * @param position The predicted position, which becomes the root of the search
+     * @param table The transposition table to share results through, or null to search without one
+     * @param orderer The killer moves and history to order moves by, or null to use the static order
+     * @param principalVariationSearch True to search with null windows and aspiration windows
+     * @param quiescencePlys The maximum number of plys of attacks to search beyond the nominal depth
+     * @param expectedScore The score the search is expected to find, or NaN if there is no estimate
+     * @param maxDepth The deepest search to run
+     */
+    public void start(StateTracker position, TranspositionTable table, MoveOrderer orderer,
+                      boolean principalVariationSearch, int quiescencePlys, double expectedScore,
+                      int maxDepth) {
+        finish();
+        position.resetPly();
+        key = position.getHashKey();
+        if (arena == null || arena.getContext() != position.getContext() || arena.getMaxDepth() < maxDepth)
+            arena = new SearchArena(position, maxDepth);
+        arena.reset(position);
+        searcher = new AlphaBetaSearcher(arena, table, null, orderer);
+        searcher.setPrincipalVariationSearch(principalVariationSearch);
+        searcher.setQuiescencePlys(quiescencePlys);
+        searcher.setExpectedScore(expectedScore);
+        AlphaBetaSearcher pondering = searcher;
+        task = executor.submit(() -> pondering.iterativeDeepening(maxDepth, Long.MAX_VALUE));
+    }
+
+    /**
+     * Stops the search, waiting for it to unwind, and hands it back if it was searching the given position
+     * @param actualKey The hash key of the position the agent actually faces
+     * @return The searcher, if it searched the position to at least one ply, or null otherwise
+     */
+    public AlphaBetaSearcher stop(long actualKey) {
+        AlphaBetaSearcher stopped = searcher;
+        if (!finish() || actualKey != key || stopped.getCompletedDepth() == 0)
+            return null;
+        return stopped;
+    }
+
+    /**
+     * Stops any search without using its results, for example at the end of an episode
+     */
+    public void cancel() {
+        finish();
+    }
+
+    /**
+     * Stops the search, if there is one, and waits for it to unwind
+     * @return True if a search was running and ended normally
+     */
+    private boolean finish() {
+        if (task == null)
+            return false;
+        searcher.stop();
+        boolean completed = false;
+        try {
+            task.get();
+            completed = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.err.println("Pondering failed: " + e.getCause());
+        }
+        task = null;
+        searcher = null;
+        return completed;
+    }
+}
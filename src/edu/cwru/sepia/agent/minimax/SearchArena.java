@@ -0,0 +1,113 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * This class holds the scratch space of an in-place search, allocated once per episode and reused by every search
+ * of it.
+ * <p>
+ * That is the state tracker the search walks, with an undo log already long enough for the deepest line, one
+ * {@link JointMoveGenerator} per ply including the quiescence plys, the principal variation tables and the
+ * evaluation cache, all flat primitive arrays sized from the map context and the depth limit. {@link #reset} copies
+ * a new root into the arena's state at the start of a turn, after which an {@link AlphaBetaSearcher} over the arena
+ * allocates nothing while it searches on the calling thread, as long as the map is small enough for its
+ * {@link DistanceField} to be filled in up front. Cached utilities stay valid from turn to turn, since they are keyed
+ * by the full state hash.
+ * <p>
+ * An arena is used by one search at a time. Searches of root moves running on a pool each take the arena of their
+ * own thread from {@link #getHelperArena()}.
+ */
+public final class SearchArena {
+
+    private static final int EVALUATION_CACHE_SIZE = 1 << 14;
+
+    private final MapContext context;
+    final int maxDepth;
+    final StateTracker state;
+    final JointMoveGenerator[] generators;
+
+    // Triangular principal variation table, the line of the previous iteration and of an earlier search, and the
+    // line of the last completed search
+    final int[][] pv;
+    final int[] pvLength;
+    final int[] previousPv;
+    final int[] expectedPv;
+    final int[] lastPv;
+
+    final long[] evaluationKeys = new long[EVALUATION_CACHE_SIZE];
+    final double[] evaluationValues = new double[EVALUATION_CACHE_SIZE];
+
+    // Killer moves and history copied from the main search, for searches of root moves
+    private MoveOrderer orderer;
+    private final ThreadLocal<SearchArena> helperArenas;
+
+    /**
+     * This constructor allocates an arena for the searches of an episode
+     * @param root A state of the episode, whose data the arena's state starts from
+     * @param maxDepth The deepest nominal search the arena must hold, at most {@link AlphaBetaSearcher#MAX_DEPTH}
+     */
+    public SearchArena(StateTracker root, int maxDepth) {
+        this.context = root.getContext();
+        this.maxDepth = Math.max(1, Math.min(maxDepth, AlphaBetaSearcher.MAX_DEPTH));
+        int plys = this.maxDepth + AlphaBetaSearcher.MAX_QUIESCENCE_PLYS;
+        state = new StateTracker(root);
+        // Every ply changes at most each unit's position or HP, and the turn
+        state.reserveUndo(plys * (context.numUnits + 1));
+        generators = new JointMoveGenerator[plys + 1];
+        for (int ply = 0; ply < generators.length; ply++) {
+            generators[ply] = new JointMoveGenerator(context.numUnits);
+        }
+        pv = new int[this.maxDepth + 1][this.maxDepth + 1];
+        pvLength = new int[this.maxDepth + 1];
+        previousPv = new int[this.maxDepth + 1];
+        expectedPv = new int[this.maxDepth + 1];
+        lastPv = new int[this.maxDepth + 1];
+        helperArenas = ThreadLocal.withInitial(() -> new SearchArena(state, this.maxDepth));
+    }
+
+    /**
+     * Starts a new search, copying its root into the arena's state in place
+     * @param root The state to search from, which must belong to this arena's episode; it is not modified
+     * @return The arena's state, now a copy of the root
+     */
+    public StateTracker reset(StateTracker root) {
+        state.copyFrom(root);
+        return state;
+    }
+
+    /**
+     * Gets the static data of the episode this arena was allocated for
+     * @return The map context of the arena's state
+     */
+    public MapContext getContext() {
+        return context;
+    }
+
+    /**
+     * Gets the deepest nominal search the arena holds
+     * @return The depth limit of the arena
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Gets the arena of the calling thread for searching a root move, allocated the first time each thread asks
+     * @return An arena of the same episode and depth limit, private to the calling thread
+     */
+    SearchArena getHelperArena() {
+        return helperArenas.get();
+    }
+
+    /**
+     * Copies killer moves and history into the arena's own orderer, for a search of a root move
+     * @param source The orderer of the main search
+     * @return The arena's orderer, now a copy of the source
+     */
+    MoveOrderer copyOrderer(MoveOrderer source) {
+        if (orderer == null) {
+            orderer = new MoveOrderer(source);
+        } else {
+            orderer.copyFrom(source);
+        }
+        return orderer;
+    }
+}
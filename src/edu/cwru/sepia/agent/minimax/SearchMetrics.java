@@ -0,0 +1,199 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * This class counts what a single search did, for one turn of the agent.
+ * <p>
+ * Searches only touch a metrics object through a reference that is null while metrics are disabled, so the
+ * counters cost a single predictable branch per node when they are off.
+ */
+public class SearchMetrics {
+
+    // Beta cutoffs are counted by the index of the child that caused them, the last bucket holding all later ones
+    public static final int CUTOFF_BUCKETS = 8;
+
+    private final int turn;
+    private long nodes;
+    private long leaves;
+    private long transpositionProbes;
+    private long transpositionHits;
+    private final long[] betaCutoffs = new long[CUTOFF_BUCKETS];
+    private int maxDepth;
+    private int completedDepth;
+    private long startNanos;
+    private long wallTimeNanos;
+
+    /**
+     * This constructor creates empty metrics for a turn
+     * @param turn The turn number of the state the search starts from
+     */
+    public SearchMetrics(int turn) {
+        this.turn = turn;
+    }
+
+    /**
+     * Records a visit to a node
+     * @param ply The distance of the node from the root
+     */
+    public void node(int ply) {
+        nodes++;
+        if (ply > maxDepth) maxDepth = ply;
+    }
+
+    /**
+     * Records the evaluation of a leaf
+     */
+    public void leaf() {
+        leaves++;
+    }
+
+    /**
+     * Records a transposition table probe
+     * @param hit Whether the probe found an entry for the state
+     */
+    public void transpositionProbe(boolean hit) {
+        transpositionProbes++;
+        if (hit) transpositionHits++;
+    }
+
+    /**
+     * Records a beta cutoff
+     * @param childIndex The index of the child that caused it, 0 being the first child searched
+     */
+    public void betaCutoff(int childIndex) {
+        betaCutoffs[Math.min(childIndex, CUTOFF_BUCKETS - 1)]++;
+    }
+
+    /**
+     * Records that the search completed every node to a depth
+     * @param depth The depth completed
+     */
+    public void completedDepth(int depth) {
+        completedDepth = Math.max(completedDepth, depth);
+    }
+
+    /**
+     * Starts timing the search
+     */
+    public void start() {
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Stops timing the search
+     */
+    public void stop() {
+        wallTimeNanos = System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Adds the counts of a search run on another thread, such as one searching a root move in parallel
+     * @param metrics The metrics of the other search
+     */
+    public synchronized void add(SearchMetrics metrics) {
+        nodes += metrics.nodes;
+        leaves += metrics.leaves;
+        transpositionProbes += metrics.transpositionProbes;
+        transpositionHits += metrics.transpositionHits;
+        for (int i = 0; i < CUTOFF_BUCKETS; i++) {
+            betaCutoffs[i] += metrics.betaCutoffs[i];
+        }
+        maxDepth = Math.max(maxDepth, metrics.maxDepth);
+    }
+
+    public int getTurn() {
+        return turn;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    public long getLeaves() {
+        return leaves;
+    }
+
+    public long getTranspositionProbes() {
+        return transpositionProbes;
+    }
+
+    public long getTranspositionHits() {
+        return transpositionHits;
+    }
+
+    public long[] getBetaCutoffs() {
+        return betaCutoffs.clone();
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    public long getWallTimeNanos() {
+        return wallTimeNanos;
+    }
+
+    /**
+     * Gets the effective branching factor, the branching factor a uniform tree of the completed depth would need to
+     * have as many nodes as the search visited
+     * @return The effective branching factor, or 0 if no depth was completed
+     */
+    public double getEffectiveBranchingFactor() {
+        return (completedDepth > 0) ? Math.pow(nodes, 1.0 / completedDepth) : 0;
+    }
+
+    /**
+     * Gets the search speed
+     * @return The number of nodes visited per second of wall time
+     */
+    public double getNodesPerSecond() {
+        return (wallTimeNanos > 0) ? nodes * 1e9 / wallTimeNanos : 0;
+    }
+
+    /**
+     * Gets the names of the columns written by {@link #toCsv()}
+     * @return A CSV header line, without a line terminator
+     */
+    public static String csvHeader() {
+        StringBuilder header = new StringBuilder("turn,completedDepth,maxDepth,nodes,leaves,transpositionProbes,"
+                + "transpositionHits,effectiveBranchingFactor,wallTimeMs,nodesPerSecond");
+        for (int i = 0; i < CUTOFF_BUCKETS; i++) {
+            header.append(",betaCutoffs").append(i).append(i == CUTOFF_BUCKETS - 1 ? "Plus" : "");
+        }
+        return header.toString();
+    }
+
+    /**
+     * Formats these metrics as a CSV line
+     * @return The metrics in the columns of {@link #csvHeader()}, without a line terminator
+     */
+    public String toCsv() {
+        StringBuilder line = new StringBuilder(String.format(Locale.ROOT, "%d,%d,%d,%d,%d,%d,%d,%.4f,%.3f,%.0f",
+                turn, completedDepth, maxDepth, nodes, leaves, transpositionProbes, transpositionHits,
+                getEffectiveBranchingFactor(), wallTimeNanos / 1e6, getNodesPerSecond()));
+        for (long cutoffs : betaCutoffs) {
+            line.append(',').append(cutoffs);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Formats these metrics as a JSON object on one line
+     * @return The metrics as JSON, without a line terminator
+     */
+    public String toJson() {
+        return String.format(Locale.ROOT, "{\"turn\":%d,\"completedDepth\":%d,\"maxDepth\":%d,\"nodes\":%d,"
+                        + "\"leaves\":%d,\"transpositionProbes\":%d,\"transpositionHits\":%d,"
+                        + "\"effectiveBranchingFactor\":%.4f,\"wallTimeMs\":%.3f,\"nodesPerSecond\":%.0f,"
+                        + "\"betaCutoffs\":%s}",
+                turn, completedDepth, maxDepth, nodes, leaves, transpositionProbes, transpositionHits,
+                getEffectiveBranchingFactor(), wallTimeNanos / 1e6, getNodesPerSecond(),
+                Arrays.toString(betaCutoffs).replace(" ", ""));
+    }
+}
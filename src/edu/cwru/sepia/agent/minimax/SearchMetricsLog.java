@@ -0,0 +1,176 @@
+package edu.cwru.sepia.agent.minimax;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class collects the search metrics of every turn of an episode.
+ * <p>
+ * The latest turn is visible through JMX once the log is registered, and an episode's turns can be appended to a
+ * file as CSV or JSON lines, so that long episodic runs can be graphed afterwards. A log that is never written keeps
+ * only the latest turn and the running totals, so it does not grow over a long run.
+ * <p>
+ * Every log is registered under its own name, so agents playing the same player number in one JVM, such as the
+ * workers of a {@link BatchRunner}, each show up separately.
+ */
+public class SearchMetricsLog implements SearchMetricsMXBean {
+
+    private static final AtomicInteger nextId = new AtomicInteger();
+
+    private final int id = nextId.getAndIncrement();
+    private final List<SearchMetrics> turns = new ArrayList<>();
+    private final boolean keepTurns;
+    private volatile SearchMetrics last = new SearchMetrics(0);
+    private int turnsSearched;
+    private long totalNodes;
+    private ObjectName registeredName;
+
+    /**
+     * This constructor creates an empty log
+     * @param keepTurns True to keep every turn until the next {@link #write(File)}, false if the log is never written
+     */
+    public SearchMetricsLog(boolean keepTurns) {
+        this.keepTurns = keepTurns;
+    }
+
+    /**
+     * Records the metrics of a turn
+     * @param metrics The metrics of the turn's search, once it has finished
+     */
+    public synchronized void record(SearchMetrics metrics) {
+        if (keepTurns)
+            turns.add(metrics);
+        turnsSearched++;
+        totalNodes += metrics.getNodes();
+        last = metrics;
+    }
+
+    /**
+     * Registers this log with the platform MBean server under a name unique to it, unless it is registered already
+     * @param playerNumber The player number of the agent
+     * @return The name the log is registered under, or null if it could not be registered
+     */
+    public synchronized ObjectName register(int playerNumber) {
+        if (registeredName != null)
+            return registeredName;
+        try {
+            ObjectName name = new ObjectName(getClass().getPackage().getName()
+                    + ":type=SearchMetrics,player=" + playerNumber + ",id=" + id);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            registeredName = name;
+            return name;
+        } catch (JMException e) {
+            System.err.println("Could not register search metrics: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Removes this log from the platform MBean server, if it is registered
+     */
+    public synchronized void unregister() {
+        if (registeredName == null)
+            return;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(registeredName))
+                server.unregisterMBean(registeredName);
+        } catch (JMException e) {
+            System.err.println("Could not unregister search metrics: " + e.getMessage());
+        }
+        registeredName = null;
+    }
+
+    /**
+     * Appends the turns recorded since the last write to a file, as JSON lines if the file name ends in .json or
+     * .jsonl, and as CSV otherwise. A CSV header is written first if the file is new or empty.
+     * @param file The file to append to
+     * @throws IOException If the file cannot be written
+     */
+    public synchronized void write(File file) throws IOException {
+        boolean json = file.getName().endsWith(".json") || file.getName().endsWith(".jsonl");
+        boolean header = !json && file.length() == 0;
+        try (PrintWriter writer = new PrintWriter(new FileWriter(file, true))) {
+            if (header)
+                writer.println(SearchMetrics.csvHeader());
+            for (SearchMetrics metrics : turns) {
+                writer.println(json ? metrics.toJson() : metrics.toCsv());
+            }
+        }
+        turns.clear();
+    }
+
+    @Override
+    public synchronized int getTurnsSearched() {
+        return turnsSearched;
+    }
+
+    @Override
+    public synchronized long getTotalNodes() {
+        return totalNodes;
+    }
+
+    @Override
+    public int getLastTurn() {
+        return last.getTurn();
+    }
+
+    @Override
+    public long getLastNodes() {
+        return last.getNodes();
+    }
+
+    @Override
+    public long getLastLeaves() {
+        return last.getLeaves();
+    }
+
+    @Override
+    public long[] getLastBetaCutoffs() {
+        return last.getBetaCutoffs();
+    }
+
+    @Override
+    public double getLastEffectiveBranchingFactor() {
+        return last.getEffectiveBranchingFactor();
+    }
+
+    @Override
+    public int getLastCompletedDepth() {
+        return last.getCompletedDepth();
+    }
+
+    @Override
+    public int getLastMaxDepth() {
+        return last.getMaxDepth();
+    }
+
+    @Override
+    public double getLastWallTimeMillis() {
+        return last.getWallTimeNanos() / 1e6;
+    }
+
+    @Override
+    public double getLastNodesPerSecond() {
+        return last.getNodesPerSecond();
+    }
+
+    @Override
+    public long getLastTranspositionProbes() {
+        return last.getTranspositionProbes();
+    }
+
+    @Override
+    public long getLastTranspositionHits() {
+        return last.getTranspositionHits();
+    }
+}
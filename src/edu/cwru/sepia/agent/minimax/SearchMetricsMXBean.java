@@ -0,0 +1,33 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * This interface exposes the search metrics of an agent through JMX, as of the last turn searched.
+ */
+public interface SearchMetricsMXBean {
+
+    int getTurnsSearched();
+
+    long getTotalNodes();
+
+    int getLastTurn();
+
+    long getLastNodes();
+
+    long getLastLeaves();
+
+    long[] getLastBetaCutoffs();
+
+    double getLastEffectiveBranchingFactor();
+
+    int getLastCompletedDepth();
+
+    int getLastMaxDepth();
+
+    double getLastWallTimeMillis();
+
+    double getLastNodesPerSecond();
+
+    long getLastTranspositionProbes();
+
+    long getLastTranspositionHits();
+}
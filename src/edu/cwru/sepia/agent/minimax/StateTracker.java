@@ -1,7 +1,6 @@
 package edu.cwru.sepia.agent.minimax;
 
 import edu.cwru.sepia.action.Action;
-import edu.cwru.sepia.environment.model.state.ResourceNode;
 import edu.cwru.sepia.environment.model.state.State;
 import edu.cwru.sepia.environment.model.state.Unit;
 import edu.cwru.sepia.util.Direction;
@@ -12,34 +11,124 @@ import java.util.*;
 import java.util.List;
 
 /**
- * This class is used as a lightweight shell for pseudo-tracking an actual game state object
+ * This class is used as a lightweight shell for pseudo-tracking an actual game state object.
+ * <p>
+ * Units are packed into dense slots (footmen first, then archers) so that copying a tracker is a handful of array
+ * clones instead of rebuilding maps of boxed integers and points. Everything that never changes during an episode
+ * (the map, unit templates and Zobrist keys) lives in a {@link MapContext} shared by reference between all copies,
+ * so a tracker holds only positions, HP, occupancy and the turn.
+ * <p>
+ * Every change to the dynamic data is recorded in an undo log, so a search can apply a joint move with
+ * {@link #makeMove(int)} and restore the exact previous state with {@link #undo(int)} instead of cloning.
+ * A joint move packs one 4-bit action code per unit of the player to move, in slot order: codes 0-3 step in a
+ * cardinal direction, codes 4-14 attack the enemy in the corresponding enemy slot, and code 15 holds. Each joint
+ * move passes the turn to the other player; plys are counted from the turn of the state view, at which the footmen
+ * are always to move. A packed joint move holds at most seven units, so that no joint move is all ones like
+ * {@link #NO_MOVE}, and only the first eleven enemies can be attacked. Larger players are moved with one unpacked
+ * code per unit through {@link #makeMove(int[], int)} instead, where attacks on further enemies take the codes
+ * after 15.
+ * <p>
+ * Occupancy is kept as two bitsets over the map cells: the static obstacle layer of the map context, and a unit
+ * layer that is updated incrementally as units move or die.
+ * <p>
+ * A Zobrist hash of the living units' positions, HP and player to move is also kept up to date by every change, so
+ * equal positions reached through different move orders share a key.
+ * <p>
+ * The utility is kept as a per-unit contribution: each footman scores its distance to its closest archer, and each
+ * archer scores its distance to a corner. Each unit also scores its remaining health, and a fixed amount once it is
+ * dead, for or against the footmen. Changes only mark the affected units as stale, and {@link #getUtility()}
+ * recomputes just those. Distances between units are shortest paths around the resources, looked up in the
+ * {@link DistanceField} of the map context.
  */
 public class StateTracker {
 
-    private int numPlayers;
+    // Joint move encoding
+    public static final int NO_MOVE = -1;
+    static final int BITS_PER_UNIT = 4;
+    static final int ACTION_MASK = (1 << BITS_PER_UNIT) - 1;
+    static final int HOLD = ACTION_MASK;
+    static final int FIRST_ATTACK = 4;
+    static final int MAX_ATTACK_TARGETS = HOLD - FIRST_ATTACK;
+    static final int MAX_PACKED_MOVERS = Integer.SIZE / BITS_PER_UNIT - 1;
+    static final Direction[] CARDINAL_DIRECTIONS = {Direction.NORTH, Direction.EAST, Direction.WEST, Direction.SOUTH};
+
+    // Undo log entry kinds
+    private static final int UNDO_POSITION = 0;
+    private static final int UNDO_HP = 1;
+    private static final int UNDO_TURN = 2;
+    private static final int UNDO_ENTRY_SIZE = 3;
+
+    // Utility feature weights
+    private static final double TARGET_DISTANCE_WEIGHT = 100;
+    private static final double TARGET_CORNERING_WEIGHT = 100;
+    private static final double HEALTH_WEIGHT = 100;
+    private static final double DEATH_WEIGHT = 1000;
+
+    // Static data of the episode, shared between copies
+    private final MapContext context;
     private int turnNumber;
-    private double xExtent;
-    private double yExtent;
-    private Map<Integer, Point> footmen;
-    private Map<Integer, Point> archers;
-    private Map<Integer, Integer> unitHPs;
-    private Map<Integer, Integer> unitAttackRanges;
-    private Map<Integer, Point> resources;
+    private int rootTurnNumber;
+
+    // Occupancy of the map by living units, indexed by y * width + x
+    private long[] unitBits;
+
+    // Dynamic per-slot unit data, copied on expand
+    private int[] xs;
+    private int[] ys;
+    private int[] hps;
+
+    // Zobrist hash of this state
+    private long hash;
+
+    // Utility contribution of each unit, and a bitmask of the slots whose contribution is stale
+    private double[] unitUtilities;
+    private long staleUnits;
+
+    // Undo log of (kind << 16 | slot, previous value, previous value) triples
+    private int[] undoLog = new int[16 * UNDO_ENTRY_SIZE];
+    private int undoSize;
+
+    // Scratch space for ordering a unit's steps, private to each copy
+    private final int[] stepKeys = new int[CARDINAL_DIRECTIONS.length];
 
     /**
-     * This constructor initializes this state tracker using a state view
+     * This constructor initializes this state tracker using a state view, with a map context built just for it
      * @param state The state view to represent by this tracker
      */
     public StateTracker(State.StateView state) {
-        xExtent = state.getXExtent();
-        yExtent = state.getYExtent();
+        this(state, new MapContext(state));
+    }
+
+    /**
+     * This constructor initializes this state tracker using a state view of an episode whose static data is known
+     * @param state The state view to represent by this tracker
+     * @param context The static data of the episode, built from a state view of the same episode
+     */
+    public StateTracker(State.StateView state, MapContext context) {
+        this.context = context;
         turnNumber = state.getTurnNumber();
-        numPlayers = state.getPlayerNumbers().length;
-        resources = initializeResources(state.getAllResourceNodes());
-        footmen = initializeLocationsFromUnits(state.getUnits(0));
-        archers = initializeLocationsFromUnits(state.getUnits(1));
-        unitHPs = initializeUnitHPsFromState(state.getAllUnits());
-        unitAttackRanges = initializeUnitAttackRangesFromState(state.getAllUnits());
+        rootTurnNumber = turnNumber;
+        int numUnits = context.numUnits;
+        xs = new int[numUnits];
+        ys = new int[numUnits];
+        hps = new int[numUnits];
+        // Units missing from the view are dead, and stay in their slots with no HP
+        for (int player = 0; player < 2; player++) {
+            for (Unit.UnitView unit : state.getUnits(player)) {
+                int slot = context.slotOf(unit.getID());
+                xs[slot] = unit.getXPosition();
+                ys[slot] = unit.getYPosition();
+                hps[slot] = unit.getHP();
+            }
+        }
+        unitBits = new long[context.obstacleBits.length];
+        for (int slot = 0; slot < numUnits; slot++) {
+            if (isAlive(slot))
+                setOccupied(xs[slot], ys[slot], true);
+        }
+        hash = computeHashKey();
+        unitUtilities = new double[numUnits];
+        staleUnits = allUnitsMask();
     }
 
     /**
@@ -47,90 +136,493 @@ public class StateTracker {
      * @param stateTracker The state tracker to represent by this tracker
      */
     public StateTracker(StateTracker stateTracker) {
-        xExtent = stateTracker.getXExtent();
-        yExtent = stateTracker.getYExtent();
-        numPlayers = stateTracker.getNumPlayers();
-        turnNumber = stateTracker.getTurnNumber();
-        resources = stateTracker.getResources();
-        footmen = initializeLocationsFromTracker(stateTracker.getFootmen());
-        archers = initializeLocationsFromTracker(stateTracker.getArchers());
-        unitHPs = new HashMap<>(stateTracker.getUnitHPs());
-        unitAttackRanges = stateTracker.getUnitAttackRanges();
-    }
-
-    /**
-     * Initializes the HP of all units represented in this state tracker
-     * @param allUnits A list of unit views
-     * @return A map of each unit's HP to its respective ID
-     */
-    private Map<Integer, Integer> initializeUnitHPsFromState(List<Unit.UnitView> allUnits) {
-        HashMap<Integer, Integer> map = new HashMap<>();
-        for (Unit.UnitView unit : allUnits){
-            map.put(unit.getID(), unit.getHP());
-        }
-        return map;
+        context = stateTracker.context;
+        turnNumber = stateTracker.turnNumber;
+        rootTurnNumber = stateTracker.rootTurnNumber;
+        unitBits = stateTracker.unitBits.clone();
+        xs = stateTracker.xs.clone();
+        ys = stateTracker.ys.clone();
+        hps = stateTracker.hps.clone();
+        hash = stateTracker.hash;
+        unitUtilities = stateTracker.unitUtilities.clone();
+        staleUnits = stateTracker.staleUnits;
     }
 
     /**
-     * Initializes the attack range of all units represented in this state tracker
-     * @param allUnits A list of unit views
-     * @return A map of each unit's attack range to its respective ID
+     * Makes this state tracker a copy of another one of the same episode, reusing its own arrays. Like a tracker
+     * built by copying, it cannot undo the moves made on the other tracker.
+     * @param stateTracker The state tracker to copy, which must share this tracker's map context
      */
-    private Map<Integer, Integer> initializeUnitAttackRangesFromState(List<Unit.UnitView> allUnits) {
-        HashMap<Integer, Integer> map = new HashMap<>();
-        for (Unit.UnitView unit : allUnits){
-            map.put(unit.getID(), unit.getTemplateView().getRange());
-        }
-        return map;
+    void copyFrom(StateTracker stateTracker) {
+        if (stateTracker.context != context)
+            throw new IllegalArgumentException("State tracker belongs to another episode");
+        turnNumber = stateTracker.turnNumber;
+        rootTurnNumber = stateTracker.rootTurnNumber;
+        System.arraycopy(stateTracker.unitBits, 0, unitBits, 0, unitBits.length);
+        System.arraycopy(stateTracker.xs, 0, xs, 0, xs.length);
+        System.arraycopy(stateTracker.ys, 0, ys, 0, ys.length);
+        System.arraycopy(stateTracker.hps, 0, hps, 0, hps.length);
+        hash = stateTracker.hash;
+        System.arraycopy(stateTracker.unitUtilities, 0, unitUtilities, 0, unitUtilities.length);
+        staleUnits = stateTracker.staleUnits;
+        undoSize = 0;
     }
 
     /**
-     * Initializes the locations of all units represented in this state tracker
-     * @param units A map of each unit's point to its respective ID
-     * @return A map of each unit's location to its respective ID
+     * Grows the undo log ahead of time, so that making moves allocates nothing until it holds more changes
+     * @param changes The number of changes the undo log should have room for
      */
-    private Map<Integer, Point> initializeLocationsFromTracker(Map<Integer, Point> units) {
-        HashMap<Integer, Point> map = new HashMap<>();
-        for (Integer unitId : units.keySet()){
-            map.put(unitId, new Point(units.get(unitId).x, units.get(unitId).y));
+    void reserveUndo(int changes) {
+        if (changes * UNDO_ENTRY_SIZE > undoLog.length) {
+            undoLog = Arrays.copyOf(undoLog, changes * UNDO_ENTRY_SIZE);
         }
-        return map;
     }
 
     /**
-     * Initializes the locations of all units represented in this state tracker
-     * @param units A list of unit views
-     * @return A hash map of each unit's location to its respective ID
+     * Brings this state up to date with a later state view of the same episode and makes it the root of a new
+     * search. Only the units that moved, lost HP or died since are changed, so the hash and the utility
+     * contributions of every other unit carry over. The occupancy of the map is rebuilt from the synced positions.
+     * @param state A state view of the episode
      */
-    private HashMap<Integer, Point> initializeLocationsFromUnits(java.util.List<Unit.UnitView> units){
-        HashMap<Integer, Point> map = new HashMap<>();
-        for (Unit.UnitView unit : units){
-            map.put(unit.getID(), new Point(unit.getXPosition(), unit.getYPosition()));
+    public void update(State.StateView state) {
+        for (int slot = 0; slot < context.numUnits; slot++) {
+            Unit.UnitView unit = state.getUnit(context.unitIds[slot]);
+            if (unit != null) {
+                int x = unit.getXPosition();
+                int y = unit.getYPosition();
+                if (!isAlive(slot)) {
+                    // Dead units take up no cell and hash no position, so the position is set directly
+                    xs[slot] = x;
+                    ys[slot] = y;
+                } else if (x != xs[slot] || y != ys[slot]) {
+                    placeSlot(slot, x, y);
+                }
+            }
+            int hp = (unit == null) ? 0 : unit.getHP();
+            if (hp != hps[slot]) restoreSlotHP(slot, hp);
         }
-        return map;
+        // Slots are synced one at a time, so a unit that moved into a cell another unit left this turn may have had
+        // its new cell cleared by the other unit's move; the unit layer is rebuilt once every slot is in place
+        Arrays.fill(unitBits, 0);
+        for (int slot = 0; slot < context.numUnits; slot++) {
+            if (isAlive(slot)) setOccupied(xs[slot], ys[slot], true);
+        }
+        restoreTurnNumber(state.getTurnNumber());
+        resetPly();
     }
 
     /**
-     * Initializes the locations of all resources represented in this state tracker
-     * @param resources A list of resources
-     * @return A map of each resource's location to its respective ID
+     * Gets the static data of the episode this state belongs to
+     * @return The map context shared by this tracker and its copies
      */
-    private Map<Integer,Point> initializeResources(java.util.List<ResourceNode.ResourceView> resources) {
-        HashMap<Integer, Point> map = new HashMap<>();
-        for (ResourceNode.ResourceView resource : resources){
-            map.put(resource.getID(), new Point(resource.getXPosition(), resource.getYPosition()));
+    public MapContext getContext() {
+        return context;
+    }
+
+    private long allUnitsMask() {
+        return (context.numUnits == 64) ? -1L : (1L << context.numUnits) - 1;
+    }
+
+    /**
+     * Marks the utility contributions that depend on a unit as stale. A footman's contribution depends only on its
+     * own position, but every footman's contribution depends on where the archers are.
+     * @param slot The slot of the unit that changed
+     */
+    private void markStale(int slot) {
+        staleUnits |= (context.owners[slot] == 0) ? 1L << slot : (1L << slot) | context.footmenMask;
+    }
+
+    private long positionKey(int slot, int x, int y) {
+        return context.positionKeys[(slot * context.height + y) * context.width + x];
+    }
+
+    private long hpKey(int slot, int hp) {
+        return context.hpKeys[slot * context.hpKeyStride + Math.max(hp, 0)];
+    }
+
+    private static boolean isSet(long[] bits, int cell) {
+        return (bits[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    private void setOccupied(int x, int y, boolean occupied) {
+        int cell = y * context.width + x;
+        if (occupied) {
+            unitBits[cell >>> 6] |= 1L << cell;
+        } else {
+            unitBits[cell >>> 6] &= ~(1L << cell);
         }
-        return map;
+    }
+
+    /**
+     * Checks whether the unit in a slot is still in play
+     * @param slot The unit's slot
+     * @return True if the unit has HP remaining
+     */
+    private boolean isAlive(int slot) {
+        return hps[slot] > 0;
     }
 
     public Action move(Integer unitId, Direction direction){
-        if (getPlayer() == 0) {
-            footmen.get(unitId).translate(direction.xComponent(), direction.yComponent());
+        moveSlot(context.slotOf(unitId), direction.xComponent(), direction.yComponent());
+        return Action.createPrimitiveMove(unitId, direction);
+    }
+
+    /**
+     * Sets the HP of a unit, recording the change so it can be undone
+     * @param unitId The ID of the unit
+     * @param hp The unit's new HP
+     */
+    public void setHP(Integer unitId, int hp) {
+        setSlotHP(context.slotOf(unitId), hp);
+    }
+
+    private void moveSlot(int slot, int dx, int dy) {
+        logUndo(UNDO_POSITION, slot, xs[slot], ys[slot]);
+        placeSlot(slot, xs[slot] + dx, ys[slot] + dy);
+    }
+
+    private void setSlotHP(int slot, int hp) {
+        logUndo(UNDO_HP, slot, hps[slot], 0);
+        restoreSlotHP(slot, hp);
+    }
+
+    private void placeSlot(int slot, int x, int y) {
+        setOccupied(xs[slot], ys[slot], false);
+        markStale(slot);
+        hash ^= positionKey(slot, xs[slot], ys[slot]) ^ positionKey(slot, x, y);
+        xs[slot] = x;
+        ys[slot] = y;
+        setOccupied(x, y, true);
+    }
+
+    private void restoreSlotHP(int slot, int hp) {
+        if ((hps[slot] > 0) != (hp > 0)) {
+            // Only living units hash their position, so where a unit died does not matter
+            setOccupied(xs[slot], ys[slot], hp > 0);
+            hash ^= positionKey(slot, xs[slot], ys[slot]);
+            markStale(slot);
         } else {
-            archers.get(unitId).translate(direction.xComponent(), direction.yComponent());
+            staleUnits |= 1L << slot;
+        }
+        hash ^= hpKey(slot, hps[slot]) ^ hpKey(slot, hp);
+        hps[slot] = hp;
+    }
+
+    private void setTurnNumber(int turn) {
+        logUndo(UNDO_TURN, 0, turnNumber, 0);
+        restoreTurnNumber(turn);
+    }
 
+    private void restoreTurnNumber(int turn) {
+        hash ^= context.playerKeys[getPlayer()];
+        turnNumber = turn;
+        hash ^= context.playerKeys[getPlayer()];
+    }
+
+    private void logUndo(int kind, int slot, int a, int b) {
+        if (undoSize + UNDO_ENTRY_SIZE > undoLog.length) {
+            undoLog = Arrays.copyOf(undoLog, undoLog.length * 2);
+        }
+        undoLog[undoSize++] = kind << 16 | slot;
+        undoLog[undoSize++] = a;
+        undoLog[undoSize++] = b;
+    }
+
+    /**
+     * Gets a marker for the current position in the undo log
+     * @return A marker that can later be passed to {@link #undo(int)}
+     */
+    public int mark() {
+        return undoSize;
+    }
+
+    /**
+     * Reverts every change made since the given marker was taken
+     * @param mark A marker previously returned by {@link #mark()}
+     */
+    public void undo(int mark) {
+        while (undoSize > mark) {
+            int b = undoLog[--undoSize];
+            int a = undoLog[--undoSize];
+            int header = undoLog[--undoSize];
+            int slot = header & 0xFFFF;
+            switch (header >>> 16) {
+                case UNDO_POSITION:
+                    placeSlot(slot, a, b);
+                    break;
+                case UNDO_HP:
+                    restoreSlotHP(slot, a);
+                    break;
+                default:
+                    restoreTurnNumber(a);
+            }
+        }
+    }
+
+    /**
+     * Fills the given array with the slots of the units that act for the player to move
+     * @param movers An array with room for every unit
+     * @return The number of units to move
+     */
+    int getMovers(int[] movers) {
+        return getMovers(getPlayer(), movers);
+    }
+
+    /**
+     * Fills the given array with the slots of a player's living units
+     * @param player The player number
+     * @param movers An array with room for every unit
+     * @return The number of units filled in
+     */
+    int getMovers(int player, int[] movers) {
+        int count = 0;
+        for (int slot = 0; slot < context.numUnits; slot++) {
+            if (context.owners[slot] == player && isAlive(slot)) movers[count++] = slot;
+        }
+        return count;
+    }
+
+    /**
+     * Fills the given array with the action codes available to a unit, in the order most likely to cause a cutoff.
+     * A unit may attack any living enemy in range, or step in a cardinal direction into a free position, holding only
+     * when it can do neither. Attacks come first, then steps sorted by the path distance they leave to the closest
+     * enemy: nearest first for footmen, which close in, and farthest first for archers, which keep away. Only the
+     * first {@link #MAX_ATTACK_TARGETS} enemies can be attacked, so that every code fits a packed joint move.
+     * @param slot The unit's slot
+     * @param codes An array with room for every action code
+     * @return The number of action codes available
+     */
+    int getUnitActions(int slot, int[] codes) {
+        return getUnitActions(slot, codes, MAX_ATTACK_TARGETS);
+    }
+
+    /**
+     * Fills the given array with the action codes available to a unit like {@link #getUnitActions(int, int[])}, but
+     * with attack codes for every enemy, for moves made unpacked through {@link #makeMove(int[], int)}
+     * @param slot The unit's slot
+     * @param codes An array with room for {@link #getMaxUnitActions()} codes
+     * @return The number of action codes available
+     */
+    int getUnpackedUnitActions(int slot, int[] codes) {
+        return getUnitActions(slot, codes, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Gets the most action codes {@link #getUnpackedUnitActions(int, int[])} can give a unit
+     * @return The number of cardinal directions plus the number of units on the larger side
+     */
+    int getMaxUnitActions() {
+        return CARDINAL_DIRECTIONS.length + Math.max(context.numFootmen, context.numUnits - context.numFootmen);
+    }
+
+    private int getUnitActions(int slot, int[] codes, int maxTargets) {
+        int count = 0;
+        int enemyStart = getEnemyStart(slot);
+        int enemyEnd = getEnemyEnd(slot);
+        int closestEnemy = -1;
+        int closestDistance = Integer.MAX_VALUE;
+        for (int enemy = enemyStart; enemy < enemyEnd; enemy++) {
+            if (!isAlive(enemy)) continue;
+            if (enemy - enemyStart < maxTargets && getSlotDistance(slot, enemy) <= context.attackRanges[slot])
+                codes[count++] = getAttackCode(enemy - enemyStart);
+            int distance = getSlotPathDistance(slot, enemy);
+            if (distance < closestDistance) {
+                closestEnemy = enemy;
+                closestDistance = distance;
+            }
+        }
+
+        int firstStep = count;
+        for (int code = 0; code < CARDINAL_DIRECTIONS.length; code++) {
+            Direction direction = CARDINAL_DIRECTIONS[code];
+            int x = xs[slot] + direction.xComponent();
+            int y = ys[slot] + direction.yComponent();
+            if (!positionAvailable(x, y)) continue;
+            int distance = (closestEnemy < 0) ? 0 : getPathDistance(x, y, xs[closestEnemy], ys[closestEnemy]);
+            int key = (context.owners[slot] == 0) ? distance : -distance;
+            int i = count++;
+            while (i > firstStep && stepKeys[i - firstStep - 1] > key) {
+                codes[i] = codes[i - 1];
+                stepKeys[i - firstStep] = stepKeys[i - firstStep - 1];
+                i--;
+            }
+            codes[i] = code;
+            stepKeys[i - firstStep] = key;
+        }
+        if (count == 0) codes[count++] = HOLD;
+        return count;
+    }
+
+    /**
+     * Gets the action code that attacks an enemy, skipping {@link #HOLD} for enemies past the packed ones
+     * @param target The index of the enemy among the slots of its side
+     * @return The attack code
+     */
+    private static int getAttackCode(int target) {
+        return (target < MAX_ATTACK_TARGETS) ? FIRST_ATTACK + target : FIRST_ATTACK + target + 1;
+    }
+
+    /**
+     * Gets the slot of the enemy a unit attacks with an attack code
+     * @param slot The attacking unit's slot
+     * @param code An attack code, neither a step nor {@link #HOLD}
+     * @return The slot of the target
+     */
+    private int getAttackTarget(int slot, int code) {
+        return getEnemyStart(slot) + ((code < HOLD) ? code - FIRST_ATTACK : code - FIRST_ATTACK - 1);
+    }
+
+    /**
+     * Checks whether every player's units fit a packed joint move, so that {@link JointMoveGenerator} can be used
+     * @return True if no player has more than {@link #MAX_PACKED_MOVERS} units
+     */
+    public boolean fitsPackedMoves() {
+        return context.numFootmen <= MAX_PACKED_MOVERS && context.numUnits - context.numFootmen <= MAX_PACKED_MOVERS;
+    }
+
+    private int getEnemyStart(int slot) {
+        return (context.owners[slot] == 0) ? context.numFootmen : 0;
+    }
+
+    private int getEnemyEnd(int slot) {
+        return (context.owners[slot] == 0) ? context.numUnits : context.numFootmen;
+    }
+
+    /**
+     * Generates every joint move of the player to move, skipping combinations that send two units to the same cell.
+     * Searches should prefer a {@link JointMoveGenerator}, which produces the same moves lazily.
+     * @return The packed joint moves available in this state
+     */
+    public int[] getJointMoves() {
+        JointMoveGenerator generator = new JointMoveGenerator(context.numUnits);
+        generator.reset(this, NO_MOVE, NO_MOVE);
+        return generator.drain();
+    }
+
+    /**
+     * Checks whether a joint move steps two units into the same cell
+     * @param movers The slots of the units to move
+     * @param numMovers The number of units to move
+     * @param move The joint move
+     * @return True if two units' destinations collide
+     */
+    boolean hasCollision(int[] movers, int numMovers, int move) {
+        for (int i = 0; i < numMovers; i++) {
+            int code1 = (move >>> (i * BITS_PER_UNIT)) & ACTION_MASK;
+            if (code1 >= FIRST_ATTACK) continue;
+            for (int j = i + 1; j < numMovers; j++) {
+                int code2 = (move >>> (j * BITS_PER_UNIT)) & ACTION_MASK;
+                if (collides(movers[i], code1, movers[j], code2)) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether two units' actions step them into the same cell
+     * @param slot1 The slot of the first unit
+     * @param code1 The action code of the first unit
+     * @param slot2 The slot of the second unit
+     * @param code2 The action code of the second unit
+     * @return True if both units step and their destinations are the same
+     */
+    boolean collides(int slot1, int code1, int slot2, int code2) {
+        if (code1 >= FIRST_ATTACK || code2 >= FIRST_ATTACK)
+            return false;
+        Direction direction1 = CARDINAL_DIRECTIONS[code1];
+        Direction direction2 = CARDINAL_DIRECTIONS[code2];
+        return xs[slot1] + direction1.xComponent() == xs[slot2] + direction2.xComponent()
+                && ys[slot1] + direction1.yComponent() == ys[slot2] + direction2.yComponent();
+    }
+
+    /**
+     * Gets the number of unit slots in this state tracker
+     * @return The number of units tracked, living or dead
+     */
+    public int getNumUnits() {
+        return context.numUnits;
+    }
+
+    /**
+     * Applies a joint move in place. Use {@link #mark()} beforehand and {@link #undo(int)} afterwards to revert it.
+     * @param jointMove A joint move generated by {@link #getJointMoves()} for this state
+     */
+    public void makeMove(int jointMove) {
+        int player = getPlayer();
+        int i = 0;
+        for (int slot = 0; slot < context.numUnits; slot++) {
+            if (context.owners[slot] != player || !isAlive(slot)) continue;
+            applyUnitAction(slot, (jointMove >>> (i++ * BITS_PER_UNIT)) & ACTION_MASK);
+        }
+        setTurnNumber(turnNumber + 1);
+    }
+
+    /**
+     * Applies one action code per unit of the player to move in place, like {@link #makeMove(int)} but without
+     * packing the codes, so any number of units can move
+     * @param codes The action code of each unit to move, in the order of {@link #getMovers(int[])}
+     * @param numMovers The number of units to move
+     */
+    void makeMove(int[] codes, int numMovers) {
+        int player = getPlayer();
+        int i = 0;
+        for (int slot = 0; slot < context.numUnits && i < numMovers; slot++) {
+            if (context.owners[slot] != player || !isAlive(slot)) continue;
+            applyUnitAction(slot, codes[i++]);
+        }
+        setTurnNumber(turnNumber + 1);
+    }
+
+    private void applyUnitAction(int slot, int code) {
+        if (code < FIRST_ATTACK) {
+            moveSlot(slot, CARDINAL_DIRECTIONS[code].xComponent(), CARDINAL_DIRECTIONS[code].yComponent());
+        } else if (code != HOLD) {
+            int target = getAttackTarget(slot, code);
+            setSlotHP(target, hps[target] - context.attackDamages[slot]);
+        }
+    }
+
+    /**
+     * Translates a joint move into the SEPIA actions that carry it out
+     * @param jointMove A joint move generated by {@link #getJointMoves()} for this state
+     * @return A map of each unit's action to its respective ID
+     */
+    public Map<Integer, Action> getActions(int jointMove) {
+        Map<Integer, Action> actions = new HashMap<>();
+        int player = getPlayer();
+        int i = 0;
+        for (int slot = 0; slot < context.numUnits; slot++) {
+            if (context.owners[slot] != player || !isAlive(slot)) continue;
+            putAction(actions, slot, (jointMove >>> (i++ * BITS_PER_UNIT)) & ACTION_MASK);
+        }
+        return actions;
+    }
+
+    /**
+     * Translates one action code per unit of the player to move into the SEPIA actions that carry them out
+     * @param codes The action code of each unit to move, in the order of {@link #getMovers(int[])}
+     * @param numMovers The number of units to move
+     * @return A map of each unit's action to its respective ID
+     */
+    Map<Integer, Action> getActions(int[] codes, int numMovers) {
+        Map<Integer, Action> actions = new HashMap<>();
+        int player = getPlayer();
+        int i = 0;
+        for (int slot = 0; slot < context.numUnits && i < numMovers; slot++) {
+            if (context.owners[slot] != player || !isAlive(slot)) continue;
+            putAction(actions, slot, codes[i++]);
+        }
+        return actions;
+    }
+
+    private void putAction(Map<Integer, Action> actions, int slot, int code) {
+        int unitId = context.unitIds[slot];
+        if (code < FIRST_ATTACK) {
+            actions.put(unitId, Action.createPrimitiveMove(unitId, CARDINAL_DIRECTIONS[code]));
+        } else if (code != HOLD) {
+            int target = getAttackTarget(slot, code);
+            actions.put(unitId, Action.createPrimitiveAttack(unitId, context.unitIds[target]));
         }
-        return Action.createPrimitiveMove(unitId, direction);
     }
 
     public boolean positionAvailable(int x, int y){
@@ -138,32 +630,125 @@ public class StateTracker {
     }
 
     private boolean isBlockedByResource(int x, int y) {
-        return resources.containsValue(new Point(x, y));
+        return isSet(context.obstacleBits, y * context.width + x);
     }
 
     private boolean isBlockedByUnit(int x, int y) {
-        return archers.containsValue(new Point(x, y))
-                || footmen.containsValue(new Point(x, y));
+        return isSet(unitBits, y * context.width + x);
     }
 
     private boolean isInBounds(int x, int y) {
-        return (x >= 0 && y >= 0 && x <= xExtent && y <= yExtent);
+        return (x >= 0 && y >= 0 && x < context.width && y < context.height);
+    }
+
+    /**
+     * Gets the Zobrist hash of this state
+     * @return A key identifying the unit positions, HP and player to move
+     */
+    public long getHashKey() {
+        return hash;
+    }
+
+    /**
+     * Computes the Zobrist hash of this state from scratch, which moves keep up to date incrementally
+     * @return The same key as {@link #getHashKey()}
+     */
+    long computeHashKey() {
+        long key = context.playerKeys[getPlayer()];
+        for (int slot = 0; slot < context.numUnits; slot++) {
+            if (isAlive(slot))
+                key ^= positionKey(slot, xs[slot], ys[slot]);
+            key ^= hpKey(slot, hps[slot]);
+        }
+        return key;
+    }
+
+    /**
+     * Gets a key for this state that ignores which of two interchangeable units is which. Each living unit
+     * contributes the keys of its symmetry class at its position and HP, and each dead unit only that it is dead, and
+     * the contributions are added up so that their order does not matter. Two states with the same canonical key
+     * are the same position up to relabeling interchangeable units, and so have the same minimax value.
+     * @return The canonical key of this state
+     */
+    public long getCanonicalKey() {
+        long key = context.playerKeys[getPlayer()];
+        for (int slot = 0; slot < context.numUnits; slot++) {
+            int symmetryClass = context.symmetryClasses[slot];
+            long unitKey = isAlive(slot) ?
+                    positionKey(symmetryClass, xs[slot], ys[slot]) ^ hpKey(symmetryClass, hps[slot])
+                    : hpKey(symmetryClass, 0);
+            key += mix(unitKey);
+        }
+        return key;
+    }
+
+    /**
+     * Scrambles the bits of a key, so that sums of keys do not cancel out along XOR-ed components
+     * @param key The key to scramble
+     * @return The scrambled key
+     */
+    private static long mix(long key) {
+        key = (key ^ (key >>> 33)) * 0xFF51AFD7ED558CCDL;
+        key = (key ^ (key >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return key ^ (key >>> 33);
     }
 
     public int getPlayer() {
-        return turnNumber % numPlayers;
+        return getPly() % context.numPlayers;
+    }
+
+    /**
+     * Gets the player whose joint move led to this state
+     * @return The player who moved last
+     */
+    int getLastPlayer() {
+        return (getPly() + context.numPlayers - 1) % context.numPlayers;
+    }
+
+    /**
+     * Makes this state the root of a new search, as if the tracker had been built from a state view of it. The moves
+     * made so far can no longer be undone.
+     */
+    void resetPly() {
+        hash ^= context.playerKeys[getPlayer()];
+        rootTurnNumber = turnNumber;
+        hash ^= context.playerKeys[getPlayer()];
+        undoSize = 0;
+    }
+
+    /**
+     * Gets the number of joint moves made since the state view this tracker was built from
+     * @return The distance of this state from the root of the search
+     */
+    int getPly() {
+        return turnNumber - rootTurnNumber;
+    }
+
+    /**
+     * Builds a map view of the living units controlled by a player
+     * @param player The player number
+     * @return A map of each unit's point-location to its respective ID
+     */
+    private Map<Integer, Point> getLocations(int player) {
+        Map<Integer, Point> map = new HashMap<>();
+        for (int slot = 0; slot < context.numUnits; slot++) {
+            if (context.owners[slot] == player && isAlive(slot)) {
+                map.put(context.unitIds[slot], new Point(xs[slot], ys[slot]));
+            }
+        }
+        return map;
     }
 
     public Map<Integer, Point> getArchers() {
-        return archers;
+        return getLocations(1);
     }
 
     public Map<Integer, Point> getFootmen() {
-        return footmen;
+        return getLocations(0);
     }
 
     public int getNumPlayers() {
-        return numPlayers;
+        return context.numPlayers;
     }
 
     public int getTurnNumber() {
@@ -171,15 +756,15 @@ public class StateTracker {
     }
 
     public double getXExtent() {
-        return xExtent;
+        return context.width;
     }
 
     public double getYExtent() {
-        return yExtent;
+        return context.height;
     }
 
     public Map<Integer,Point> getResources() {
-        return resources;
+        return context.getResources();
     }
 
     /**
@@ -187,31 +772,63 @@ public class StateTracker {
      * @return A utility value assessing the score of this state
      */
     public double getUtility() {
-        return getUtilityFromTargetDistance() * 100 +
-                getUtilityFromTargetCornering() * 100 +
-                getUtilityFromObstacles() * 1;
+        for (long stale = staleUnits; stale != 0; stale &= stale - 1) {
+            int slot = Long.numberOfTrailingZeros(stale);
+            unitUtilities[slot] = (context.owners[slot] == 0) ? getFootmanUtility(slot) : getArcherUtility(slot);
+        }
+        staleUnits = 0;
+        double utility = 0;
+        for (int slot = 0; slot < context.numUnits; slot++) {
+            utility += unitUtilities[slot];
+        }
+        return utility;
     }
 
-    private int getDistance(Point p1, Point p2) {
-        return DistanceMetrics.chebyshevDistance(p1.x, p1.y, p2.x, p2.y);
+    /**
+     * Computes the utility of this state from scratch, without the contributions {@link #getUtility()} keeps from
+     * earlier states
+     * @return The same value as {@link #getUtility()}
+     */
+    double computeUtility() {
+        double utility = 0;
+        for (int slot = 0; slot < context.numUnits; slot++) {
+            utility += (context.owners[slot] == 0) ? getFootmanUtility(slot) : getArcherUtility(slot);
+        }
+        return utility;
+    }
+
+    private int getDistance(int x1, int y1, int x2, int y2) {
+        return DistanceMetrics.chebyshevDistance(x1, y1, x2, y2);
+    }
+
+    private int getSlotDistance(int slot1, int slot2) {
+        return getDistance(xs[slot1], ys[slot1], xs[slot2], ys[slot2]);
+    }
+
+    private int getPathDistance(int x1, int y1, int x2, int y2) {
+        return context.distanceField.getDistance(x1, y1, x2, y2);
+    }
+
+    private int getSlotPathDistance(int slot1, int slot2) {
+        return getPathDistance(xs[slot1], ys[slot1], xs[slot2], ys[slot2]);
     }
 
     public int getDistance(Integer footmanId, Integer archerId){
-        return !(archers.containsKey(archerId) && footmen.containsKey(footmanId)) ?
-                0 : DistanceMetrics.chebyshevDistance(
-                archers.get(archerId).x, archers.get(archerId).y,
-                footmen.get(footmanId).x, footmen.get(footmanId).y
-        );
+        int footman = context.slotOf(footmanId);
+        int archer = context.slotOf(archerId);
+        return (footman < 0 || archer < 0 || context.owners[footman] != 0 || context.owners[archer] != 1
+                || !isAlive(footman) || !isAlive(archer)) ?
+                0 : getSlotPathDistance(archer, footman);
     }
 
-    private int getClosestArcher(int footmanId) {
-        Point footmanLoc = footmen.get(footmanId);
+    private int getClosestArcher(int footman) {
         int closestArcher = -1;
         int minDistance = Integer.MAX_VALUE;
-        for (int archerId : archers.keySet()) {
-            int distance = getDistance(footmanLoc, archers.get(archerId));
+        for (int archer = 0; archer < context.numUnits; archer++) {
+            if (context.owners[archer] != 1 || !isAlive(archer)) continue;
+            int distance = getSlotPathDistance(footman, archer);
             if (distance < minDistance) {
-                closestArcher = archerId;
+                closestArcher = archer;
                 minDistance = distance;
             }
         }
@@ -219,68 +836,73 @@ public class StateTracker {
     }
 
     /**
-     * Gets a utility value based on the distance to the footmen's targets
-     * @return
+     * Gets a footman's contribution to the utility, based on its health and the length of its path to its target
+     * @param footman The footman's slot
+     * @return The footman's utility contribution
      */
-    private double getUtilityFromTargetDistance() {
-        double utility = 0;
-        for (int footmanId : footmen.keySet()) {
-            int distance = getDistance(
-                    footmen.get(footmanId),
-                    archers.get(getClosestArcher(footmanId))
-            );
-            utility += Math.pow(distance, -2);
-        }
-        return utility;
+    private double getFootmanUtility(int footman) {
+        if (!isAlive(footman)) return -DEATH_WEIGHT;
+        double utility = getUtilityFromHealth(footman) * HEALTH_WEIGHT;
+        int archer = getClosestArcher(footman);
+        // With no archers left the footman scores as if it had reached its target
+        if (archer < 0) return utility + TARGET_DISTANCE_WEIGHT;
+        return utility + getUtilityFromTargetDistance(footman, archer) * TARGET_DISTANCE_WEIGHT;
     }
 
     /**
-     * Gets a utility value based on how close each archer is to a corner of the map
+     * Gets an archer's contribution to the utility, based on its health and how cornered it is
+     * @param archer The archer's slot
+     * @return The archer's utility contribution
+     */
+    private double getArcherUtility(int archer) {
+        if (!isAlive(archer)) return DEATH_WEIGHT;
+        return getUtilityFromTargetCornering(archer) * TARGET_CORNERING_WEIGHT
+                - getUtilityFromHealth(archer) * HEALTH_WEIGHT;
+    }
+
+    /**
+     * Gets a utility value based on the fraction of its starting health a unit has left
+     * @param slot The unit's slot
+     * @return The unit's remaining fraction of health
+     */
+    private double getUtilityFromHealth(int slot) {
+        return (double) hps[slot] / context.maxHps[slot];
+    }
+
+    /**
+     * Gets a utility value based on the length of the path from a footman to its target
      * @return
      */
-    private double getUtilityFromTargetCornering() {
-        double utility = 0;
-        for (Point archerLoc : archers.values()) {
-            Point closestCorner = new Point(
-                    (int)(Math.round(archerLoc.x / (xExtent - 1)) * (xExtent - 1)),
-                    (int)(Math.round(archerLoc.y / (yExtent - 1)) * (yExtent - 1))
-            );
-            int distance = getDistance(archerLoc, closestCorner);
-            utility += Math.pow(distance, -2);
-        }
-        return utility;
+    private double getUtilityFromTargetDistance(int footman, int archer) {
+        return Math.pow(getSlotPathDistance(footman, archer), -2);
     }
 
     /**
-     * Gets a utility value based on obstacles in the general path between each footman and its target
+     * Gets a utility value based on how close an archer is to a corner of the map
      * @return
      */
-    private double getUtilityFromObstacles() {
-        double utility = 0;
-        for (int footmanId : footmen.keySet()) {
-            Point footmanLoc = footmen.get(footmanId);
-            Point archerLoc = archers.get(getClosestArcher(footmanId));
-            int xMin = Math.min(footmanLoc.x, archerLoc.x);
-            int xMax = Math.max(footmanLoc.x, archerLoc.x);
-            int yMin = Math.min(footmanLoc.y, archerLoc.y);
-            int yMax = Math.max(footmanLoc.y, archerLoc.y);
-            int numObstacles = 0;
-            for (Point resourceLoc : resources.values()) {
-                if (resourceLoc.x >= xMin && resourceLoc.x <= xMax && resourceLoc.y >= yMin && resourceLoc.y <= yMax) {
-                    numObstacles++;
-                }
-            }
-            int areaChecked = (xMax - xMin + 1) * (yMax - yMin + 1);
-            utility -= (double)numObstacles / areaChecked;
-        }
-        return utility;
+    private double getUtilityFromTargetCornering(int archer) {
+        double xExtent = context.width;
+        double yExtent = context.height;
+        int closestCornerX = (int)(Math.round(xs[archer] / (xExtent - 1)) * (xExtent - 1));
+        int closestCornerY = (int)(Math.round(ys[archer] / (yExtent - 1)) * (yExtent - 1));
+        int distance = getDistance(xs[archer], ys[archer], closestCornerX, closestCornerY);
+        return Math.pow(Math.max(distance, 1), -2);
     }
 
     public Map<Integer, Integer> getUnitHPs() {
-        return unitHPs;
+        Map<Integer, Integer> map = new HashMap<>();
+        for (int slot = 0; slot < context.numUnits; slot++) {
+            map.put(context.unitIds[slot], hps[slot]);
+        }
+        return map;
     }
 
     public Map<Integer, Integer> getUnitAttackRanges() {
-        return unitAttackRanges;
+        Map<Integer, Integer> map = new HashMap<>();
+        for (int slot = 0; slot < context.numUnits; slot++) {
+            map.put(context.unitIds[slot], context.attackRanges[slot]);
+        }
+        return map;
     }
 }
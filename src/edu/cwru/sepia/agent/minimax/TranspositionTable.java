@@ -0,0 +1,107 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * This class is a fixed-size transposition table keyed by {@link StateTracker#getHashKey()}.
+ * <p>
+ * The table never grows past the memory cap it is created with. Each slot holds one entry, which is replaced when
+ * the new entry was searched at least as deeply or the old one is left over from an earlier turn. A shallower result
+ * for the same state also replaces it if the new value is exact and the old one only a bound. Entries are
+ * stored as three parallel longs with the key XOR-ed against the other two, so a torn or colliding entry fails the
+ * key check instead of returning another position's data.
+ */
+public class TranspositionTable {
+
+    // Bound types
+    public static final int EXACT = 0;
+    public static final int LOWER = 1;
+    public static final int UPPER = 2;
+
+    private static final int BYTES_PER_ENTRY = 3 * Long.BYTES;
+
+    private final long[] keys;
+    // move << 32 | in-use flag << 24 | depth << 16 | bound << 8 | age
+    private final long[] data;
+    private final long[] values;
+    private final int mask;
+    private int age;
+
+    /**
+     * This class holds the contents of a probed entry
+     */
+    public static class Entry {
+        public double value;
+        public int depth;
+        public int bound;
+        public int move;
+    }
+
+    /**
+     * This constructor allocates a table of the largest power-of-two size that fits in the memory cap
+     * @param megabytes The memory cap of the table
+     */
+    public TranspositionTable(int megabytes) {
+        long maxEntries = Math.max(1, (long) megabytes * 1024 * 1024 / BYTES_PER_ENTRY);
+        int size = Integer.highestOneBit((int) Math.min(maxEntries, 1 << 30));
+        keys = new long[size];
+        data = new long[size];
+        values = new long[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Starts a new search, after which entries from earlier searches are always replaceable
+     */
+    public void newSearch() {
+        age = (age + 1) & 0xFF;
+    }
+
+    /**
+     * Looks up a state in the table
+     * @param key The Zobrist key of the state
+     * @param entry The holder to fill with the stored entry
+     * @return True if an entry for the state was found
+     */
+    public boolean probe(long key, Entry entry) {
+        int index = (int) key & mask;
+        long entryData = data[index];
+        long entryValue = values[index];
+        if (entryData == 0 || (keys[index] ^ entryData ^ entryValue) != key)
+            return false;
+        entry.value = Double.longBitsToDouble(entryValue);
+        entry.move = (int) (entryData >>> 32);
+        entry.depth = (int) (entryData >>> 16) & 0xFF;
+        entry.bound = (int) (entryData >>> 8) & 0xFF;
+        return true;
+    }
+
+    /**
+     * Stores the result of searching a state, unless the slot holds a deeper entry from the current search, which is
+     * only replaced by an exact value for the same state that replaces a bound
+     * @param key The Zobrist key of the state
+     * @param value The value found for the state
+     * @param depth The number of plys searched below the state
+     * @param bound Whether the value is {@link #EXACT}, a {@link #LOWER} bound or an {@link #UPPER} bound
+     * @param move The best joint move found, or {@link StateTracker#NO_MOVE}
+     */
+    public void store(long key, double value, int depth, int bound, int move) {
+        int index = (int) key & mask;
+        long oldData = data[index];
+        if (oldData != 0 && (oldData & 0xFF) == age && ((oldData >>> 16) & 0xFF) > depth
+                && (bound != EXACT || ((oldData >>> 8) & 0xFF) == EXACT
+                    || (keys[index] ^ oldData ^ values[index]) != key))
+            return;
+        long entryData = (long) move << 32 | (long) Math.min(depth, 0xFF) << 16 | bound << 8 | age | 1L << 24;
+        long entryValue = Double.doubleToRawLongBits(value);
+        keys[index] = key ^ entryData ^ entryValue;
+        data[index] = entryData;
+        values[index] = entryValue;
+    }
+
+    /**
+     * Gets the number of entries the table can hold
+     * @return The capacity of the table
+     */
+    public int capacity() {
+        return keys.length;
+    }
+}
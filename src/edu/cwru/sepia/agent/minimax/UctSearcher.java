@@ -0,0 +1,416 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * This class runs Monte Carlo tree search with the UCT selection rule over a state tracker.
+ * <p>
+ * Each iteration walks down the tree from the root, picking the child with the best upper confidence bound, adds
+ * one new child where the walk stops, plays a short randomized game from there and backs the result up the path.
+ * Rewards are in [0, 1] from the footmen's point of view: the utility at the end of the playout, relative to the
+ * root's, squashed by a logistic curve. The move played is the root child visited most often.
+ * <p>
+ * Joint moves are kept unpacked, as one action code per unit to move in the order of
+ * {@link StateTracker#getMovers(int[])}, so that players may have more units than a packed joint move holds.
+ * Nodes whose player has few joint moves list them all up front, in the order of {@link JointMoveGenerator}.
+ * With many units the joint moves multiply, so nodes with more than {@link #FULL_EXPANSION_LIMIT} of them instead
+ * sample new children, one unit action at a time, and only widen as they are visited: a node visited n times may
+ * have about {@link #WIDENING_FACTOR} * sqrt(n) children. This keeps the cost of an iteration independent of the
+ * number of joint moves, so larger battles still get a useful number of iterations within the time budget.
+ * <p>
+ * Several threads can search the same tree. Walking and updating the tree is done under a single lock, but
+ * playouts, which take most of the time, run outside it on each thread's own copy of the state. A thread passing
+ * through a node adds a virtual loss to it until its result is backed up, so that other threads prefer other paths
+ * in the meantime.
+ */
+public class UctSearcher {
+
+    // Nodes with at most this many joint moves list them all, instead of sampling them
+    static final int FULL_EXPANSION_LIMIT = 64;
+    // A sampling node visited n times may have up to WIDENING_FACTOR * sqrt(n) children
+    static final double WIDENING_FACTOR = 2;
+    // Attempts at drawing a new joint move before giving up until the next visit
+    private static final int SAMPLE_ATTEMPTS = 8;
+    // Utility difference, relative to the root, that maps to a reward of about 0.73
+    private static final double REWARD_SCALE = 100;
+    // Chance that a unit takes its best ordered action in a playout, rather than a random one
+    private static final double GREEDY_PLAYOUT_PROBABILITY = 0.8;
+
+    /**
+     * This class is a node of the search tree. Its fields are only accessed while holding the searcher's lock.
+     */
+    private static class Node {
+        private final Node parent;
+        private final int[] move;
+        private Node[] children = new Node[4];
+        private int numChildren;
+        private boolean expanded;
+        private boolean terminal;
+        // Joint moves not yet added as children, for nodes that list them all, or null for sampling nodes
+        private int[][] untriedMoves;
+        private int nextUntriedMove;
+        private int player;
+        private int visits;
+        private int virtualLosses;
+        private double totalReward;
+
+        private Node(Node parent, int[] move) {
+            this.parent = parent;
+            this.move = move;
+        }
+
+        private Node addChild(int[] move) {
+            if (numChildren == children.length) children = Arrays.copyOf(children, numChildren * 2);
+            Node child = new Node(this, move);
+            children[numChildren++] = child;
+            return child;
+        }
+
+        private boolean hasChild(int[] move) {
+            for (int i = 0; i < numChildren; i++) {
+                if (Arrays.equals(children[i].move, move)) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * This class holds the scratch space of one searching thread
+     */
+    private class Worker {
+        private final StateTracker state = new StateTracker(root);
+        private final SplittableRandom random;
+        private final int[] movers = new int[root.getNumUnits()];
+        private final int[][] codes = new int[root.getNumUnits()][root.getMaxUnitActions()];
+        private final int[] codeCounts = new int[root.getNumUnits()];
+        // The joint move being drawn or counted through, and the index of each unit's code in it
+        private final int[] move = new int[root.getNumUnits()];
+        private final int[] digits = new int[root.getNumUnits()];
+
+        private Worker(long seed) {
+            random = new SplittableRandom(seed);
+        }
+    }
+
+    private final StateTracker root;
+    private final Node rootNode;
+    private final double exploration;
+    private final int playoutDepth;
+    private final double rootUtility;
+    private final Object lock = new Object();
+    private long iterations;
+
+    /**
+     * This constructor prepares a search of the given state
+     * @param state The state to search from; it is copied by every searching thread and not modified
+     * @param exploration The exploration constant of the UCT rule
+     * @param playoutDepth The number of joint moves played out from each new node before it is evaluated
+     */
+    public UctSearcher(StateTracker state, double exploration, int playoutDepth) {
+        this.root = state;
+        this.rootNode = new Node(null, null);
+        this.exploration = exploration;
+        this.playoutDepth = playoutDepth;
+        this.rootUtility = state.getUtility();
+    }
+
+    /**
+     * Runs iterations until the deadline passes, on the calling thread and on further threads from an executor
+     * @param deadline The {@link System#nanoTime()} after which no more iterations are started
+     * @param executor The executor to run the other threads on, or null to search on the calling thread only
+     * @param threads The total number of threads to search on, including the calling thread
+     * @param seed The seed of the random playouts
+     * @return The action code of each unit to move in the best joint move, or null if the player to move has none
+     */
+    public int[] search(long deadline, ExecutorService executor, int threads, long seed) {
+        List<Future<?>> helpers = new ArrayList<>();
+        for (int i = 1; i < threads && executor != null; i++) {
+            Worker worker = new Worker(seed + i);
+            helpers.add(executor.submit(() -> runIterations(worker, deadline)));
+        }
+        runIterations(new Worker(seed), deadline);
+        for (Future<?> helper : helpers) {
+            try {
+                helper.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Search thread failed", e.getCause());
+            }
+        }
+        return getBestMove();
+    }
+
+    /**
+     * Runs iterations on one thread until the deadline passes, always running at least one
+     * @param worker The scratch space of the thread
+     * @param deadline The {@link System#nanoTime()} after which no more iterations are started
+     */
+    private void runIterations(Worker worker, long deadline) {
+        do {
+            iterate(worker);
+        } while (System.nanoTime() < deadline);
+    }
+
+    /**
+     * Runs one iteration: selection and expansion, a playout, and backing up its reward
+     * @param worker The scratch space of the thread
+     */
+    private void iterate(Worker worker) {
+        StateTracker state = worker.state;
+        int mark = state.mark();
+        Node leaf;
+        synchronized (lock) {
+            Node node = rootNode;
+            node.virtualLosses++;
+            while (true) {
+                if (!node.expanded)
+                    initialize(node, worker);
+                if (node.terminal)
+                    break;
+                Node child = expand(node, worker);
+                if (child == null)
+                    child = select(node);
+                if (child == null)
+                    break;
+                state.makeMove(child.move, child.move.length);
+                child.virtualLosses++;
+                node = child;
+                if (child.visits == 0)
+                    break;
+            }
+            leaf = node;
+        }
+        double reward = playout(worker);
+        state.undo(mark);
+        synchronized (lock) {
+            for (Node node = leaf; node != null; node = node.parent) {
+                node.virtualLosses--;
+                node.visits++;
+                node.totalReward += reward;
+            }
+            iterations++;
+        }
+    }
+
+    /**
+     * Works out who moves at a node and, if they have few joint moves, lists them all
+     * @param node The node, whose position the worker's state is in
+     * @param worker The scratch space of the thread
+     */
+    private void initialize(Node node, Worker worker) {
+        StateTracker state = worker.state;
+        node.expanded = true;
+        node.player = state.getPlayer();
+        int numMovers = state.getMovers(worker.movers);
+        if (numMovers == 0) {
+            node.terminal = true;
+            return;
+        }
+        long combinations = 1;
+        for (int i = 0; i < numMovers; i++) {
+            worker.codeCounts[i] = state.getUnpackedUnitActions(worker.movers[i], worker.codes[i]);
+            combinations *= worker.codeCounts[i];
+            if (combinations > FULL_EXPANSION_LIMIT)
+                return;
+        }
+        node.untriedMoves = listMoves(worker, numMovers, (int) combinations);
+        node.terminal = (node.untriedMoves.length == 0);
+    }
+
+    /**
+     * Lists every joint move without collisions by counting through the cross product of the units' action codes,
+     * first unit fastest, as {@link JointMoveGenerator} does
+     * @param worker The scratch space of the thread, holding the action codes of the units to move
+     * @param numMovers The number of units to move
+     * @param combinations The number of combinations of the units' action codes
+     * @return The joint moves, one action code per unit to move
+     */
+    private int[][] listMoves(Worker worker, int numMovers, int combinations) {
+        StateTracker state = worker.state;
+        int[][] moves = new int[combinations][];
+        int count = 0;
+        Arrays.fill(worker.digits, 0, numMovers, 0);
+        for (int n = 0; n < combinations; n++) {
+            for (int i = 0; i < numMovers; i++) {
+                worker.move[i] = worker.codes[i][worker.digits[i]];
+            }
+            if (!hasCollision(state, worker.movers, worker.move, numMovers))
+                moves[count++] = Arrays.copyOf(worker.move, numMovers);
+            for (int i = 0; i < numMovers && ++worker.digits[i] == worker.codeCounts[i]; i++) {
+                worker.digits[i] = 0;
+            }
+        }
+        return Arrays.copyOf(moves, count);
+    }
+
+    /**
+     * Checks whether an unpacked joint move steps two units into the same cell
+     * @param state The state the move is made in
+     * @param movers The slots of the units to move
+     * @param move The action code of each unit to move
+     * @param numMovers The number of units to move
+     * @return True if two units' destinations collide
+     */
+    private static boolean hasCollision(StateTracker state, int[] movers, int[] move, int numMovers) {
+        for (int i = 0; i < numMovers; i++) {
+            for (int j = i + 1; j < numMovers; j++) {
+                if (state.collides(movers[i], move[i], movers[j], move[j])) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds a new child to a node, if it has moves left to try and has been visited often enough to widen
+     * @param node The node, whose position the worker's state is in
+     * @param worker The scratch space of the thread
+     * @return The new child, or null if none was added
+     */
+    private Node expand(Node node, Worker worker) {
+        if (node.untriedMoves != null) {
+            return (node.nextUntriedMove < node.untriedMoves.length)
+                    ? node.addChild(node.untriedMoves[node.nextUntriedMove++]) : null;
+        }
+        if (node.numChildren > 0 && node.numChildren >= WIDENING_FACTOR * Math.sqrt(node.visits))
+            return null;
+        // The first child of a sampling node takes every unit's best ordered action, later ones random actions
+        for (int attempt = 0; attempt < SAMPLE_ATTEMPTS; attempt++) {
+            int numMovers = sampleMove(worker, node.numChildren == 0 && attempt == 0 ? 1 : 0);
+            if (numMovers == 0)
+                continue;
+            int[] move = Arrays.copyOf(worker.move, numMovers);
+            if (!node.hasChild(move))
+                return node.addChild(move);
+        }
+        return null;
+    }
+
+    /**
+     * Picks the child with the highest upper confidence bound for the player to move, counting virtual losses as
+     * visits that the player lost
+     * @param node The node to pick a child of
+     * @return The child, or null if the node has none
+     */
+    private Node select(Node node) {
+        Node best = null;
+        double bestBound = Double.NEGATIVE_INFINITY;
+        double logVisits = Math.log(Math.max(node.visits + node.virtualLosses, 1));
+        for (int i = 0; i < node.numChildren; i++) {
+            Node child = node.children[i];
+            int visits = child.visits + child.virtualLosses;
+            if (visits == 0)
+                return child;
+            // A virtual loss is a reward of 0 for the footmen, or of 1 when the archers choose
+            double reward = child.totalReward + ((node.player == 0) ? 0 : child.virtualLosses);
+            double mean = reward / visits;
+            double bound = ((node.player == 0) ? mean : 1 - mean) + exploration * Math.sqrt(logVisits / visits);
+            if (bound > bestBound) {
+                best = child;
+                bestBound = bound;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Draws a joint move for the player to move into the worker's move by picking each unit's action separately
+     * @param worker The scratch space of the thread, whose state is in the position to move from
+     * @param greedyProbability The chance that a unit takes its best ordered action rather than a random one
+     * @return The number of units to move, or 0 if the player has none or the draws kept colliding
+     */
+    private int sampleMove(Worker worker, double greedyProbability) {
+        StateTracker state = worker.state;
+        int numMovers = state.getMovers(worker.movers);
+        for (int i = 0; i < numMovers; i++) {
+            worker.codeCounts[i] = state.getUnpackedUnitActions(worker.movers[i], worker.codes[i]);
+        }
+        for (int attempt = 0; attempt < SAMPLE_ATTEMPTS; attempt++) {
+            for (int i = 0; i < numMovers; i++) {
+                int index = (worker.random.nextDouble() < greedyProbability) ? 0
+                        : worker.random.nextInt(worker.codeCounts[i]);
+                worker.move[i] = worker.codes[i][index];
+            }
+            if (!hasCollision(state, worker.movers, worker.move, numMovers))
+                return numMovers;
+            greedyProbability = 0;
+        }
+        return 0;
+    }
+
+    /**
+     * Picks each unit's first ordered action that does not step into the same cell as an earlier unit's, holding
+     * if there is none, into the worker's move. Unlike a random draw this never fails.
+     * @param worker The scratch space of the thread, holding the action codes drawn from by {@link #sampleMove}
+     * @param numMovers The number of units to move
+     */
+    private void firstFreeMove(Worker worker, int numMovers) {
+        StateTracker state = worker.state;
+        for (int i = 0; i < numMovers; i++) {
+            worker.move[i] = StateTracker.HOLD;
+            for (int k = 0; k < worker.codeCounts[i] && worker.move[i] == StateTracker.HOLD; k++) {
+                int code = worker.codes[i][k];
+                boolean free = true;
+                for (int j = 0; j < i && free; j++) {
+                    free = !state.collides(worker.movers[i], code, worker.movers[j], worker.move[j]);
+                }
+                if (free) worker.move[i] = code;
+            }
+        }
+    }
+
+    /**
+     * Plays a short game from the worker's state, with mostly greedy moves for both players, and scores the
+     * position it ends in
+     * @param worker The scratch space of the thread
+     * @return The reward of the playout for the footmen, between 0 and 1
+     */
+    private double playout(Worker worker) {
+        StateTracker state = worker.state;
+        for (int ply = 0; ply < playoutDepth; ply++) {
+            int numMovers = sampleMove(worker, GREEDY_PLAYOUT_PROBABILITY);
+            if (numMovers == 0) {
+                numMovers = state.getMovers(worker.movers);
+                if (numMovers == 0)
+                    break;
+                firstFreeMove(worker, numMovers);
+            }
+            state.makeMove(worker.move, numMovers);
+        }
+        return 1 / (1 + Math.exp(-(state.getUtility() - rootUtility) / REWARD_SCALE));
+    }
+
+    /**
+     * Gets the root move visited most often, breaking ties by mean reward
+     * @return The action code of each unit to move in the best joint move, or null if the root has no children
+     */
+    public int[] getBestMove() {
+        synchronized (lock) {
+            Node best = null;
+            for (int i = 0; i < rootNode.numChildren; i++) {
+                Node child = rootNode.children[i];
+                if (best == null || child.visits > best.visits || (child.visits == best.visits
+                        && child.totalReward > best.totalReward)) {
+                    best = child;
+                }
+            }
+            return (best == null) ? null : best.move;
+        }
+    }
+
+    /**
+     * Gets the number of iterations run so far, over all threads
+     * @return The number of iterations
+     */
+    public long getIterations() {
+        synchronized (lock) {
+            return iterations;
+        }
+    }
+}